@@ -0,0 +1,91 @@
+package io.github.adainish.velobbity.benchmark;
+
+import io.github.adainish.velobbity.Velobbbity;
+import io.github.adainish.velobbity.configuration.Config;
+import io.github.adainish.velobbity.configuration.GSON;
+import io.github.adainish.velobbity.data.LobbyServer;
+import io.github.adainish.velobbity.fake.FakePlugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Loading and saving config.json with a lobby list of the given size.
+ * Saves are forced, atomic and synced to disk, so their numbers depend on the local disk.
+ */
+@State(Scope.Benchmark)
+public class ConfigurationBenchmark
+{
+    @Param({"3", "100"})
+    public int lobbies;
+
+    private Path directory;
+    private Config config;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        Velobbbity plugin = FakePlugin.install();
+        directory = Files.createTempDirectory("velobbity-bench");
+        config = new Config(directory.toString(), "config", GSON.PRETTY_MAIN_GSON());
+        List<LobbyServer> servers = new ArrayList<>();
+        for (int i = 0; i < lobbies; i++)
+            servers.add(new LobbyServer("lobby" + i, 100));
+        config.batch(() -> {
+            config.setSubConfigElement("configuration", "servers", plugin.toJSONElement(servers));
+            config.addSubComment("configuration", "servers", "Server name and max players for lobby servers");
+            config.setSubConfigElement("redis", "host", "localhost");
+            config.setSubConfigElement("redis", "port", 6379);
+        });
+        config.save();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        config.flush();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                Files.deleteIfExists(file);
+        }
+    }
+
+    @Benchmark
+    public void save()
+    {
+        config.save();
+    }
+
+    @Benchmark
+    public Config reload()
+    {
+        config.reload();
+        return config;
+    }
+
+    //a write-behind change, the write itself happens later on the flusher thread
+    @Benchmark
+    public void setElement()
+    {
+        config.setSubConfigElement("redis", "port", counter++);
+    }
+
+    @Benchmark
+    public Integer readElement()
+    {
+        return config.getSubConfigInt("redis", "port");
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.adainish.velobbity.benchmark;
+
+import com.google.gson.JsonElement;
+import io.github.adainish.velobbity.Velobbbity;
+import io.github.adainish.velobbity.configuration.GSON;
+import io.github.adainish.velobbity.data.LobbyServer;
+import io.github.adainish.velobbity.data.VelobbityPlayer;
+import io.github.adainish.velobbity.fake.FakePlugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Encoding and decoding plugin types through the shared Gson instances and their streaming adapters.
+ */
+@State(Scope.Benchmark)
+public class GsonCodecBenchmark
+{
+    private Velobbbity plugin;
+    private List<LobbyServer> lobbies;
+    private JsonElement lobbiesTree;
+    private VelobbityPlayer player;
+    private String playerJson;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        plugin = FakePlugin.install();
+        lobbies = new ArrayList<>();
+        for (int i = 0; i < 16; i++)
+            lobbies.add(new LobbyServer("lobby" + i, 100));
+        lobbiesTree = plugin.toJSONElement(lobbies);
+        player = new VelobbityPlayer(UUID.nameUUIDFromBytes(new byte[]{42}), "player");
+        player.setLastServer("lobby1");
+        player.setDesiredServer("survival");
+        playerJson = GSON.COMPACT_GSON().toJson(player);
+    }
+
+    @Benchmark
+    public JsonElement encodeLobbies()
+    {
+        return plugin.toJSONElement(lobbies);
+    }
+
+    @Benchmark
+    public List<LobbyServer> decodeLobbies()
+    {
+        return plugin.fromJSONElement(lobbiesTree);
+    }
+
+    @Benchmark
+    public String encodePlayer()
+    {
+        return GSON.COMPACT_GSON().toJson(player);
+    }
+
+    @Benchmark
+    public VelobbityPlayer decodePlayer()
+    {
+        return GSON.COMPACT_GSON().fromJson(playerJson, VelobbityPlayer.class);
+    }
+}
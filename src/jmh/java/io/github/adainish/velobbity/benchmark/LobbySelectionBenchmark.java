@@ -0,0 +1,96 @@
+package io.github.adainish.velobbity.benchmark;
+
+import io.github.adainish.velobbity.data.LobbyServer;
+import io.github.adainish.velobbity.fake.FakeQueueServers;
+import io.github.adainish.velobbity.lobby.LobbyOccupancy;
+import io.github.adainish.velobbity.lobby.LobbySelector;
+import io.github.adainish.velobbity.lobby.SelectionPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import us.ajg0702.queue.api.players.AdaptedPlayer;
+import us.ajg0702.queue.api.queues.QueueManager;
+import us.ajg0702.queue.api.queues.QueueServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Picking a lobby over N servers, with the same joinability check the plugin runs against AjQueue.
+ * One in eight lobbies is offline and player counts are seeded, so every run sees the same network.
+ */
+@State(Scope.Benchmark)
+public class LobbySelectionBenchmark
+{
+    @Param({"4", "32", "256"})
+    public int servers;
+
+    @Param({"LEAST_LOADED", "POWER_OF_TWO_CHOICES", "CONSISTENT_HASH"})
+    public SelectionPolicy policy;
+
+    private final List<LobbyServer> lobbies = new ArrayList<>();
+    private int[] playerCounts;
+    private final FakeQueueServers queueServers = new FakeQueueServers();
+    private LobbySelector selector;
+    private Predicate<String> joinable;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        Random random = new Random(42);
+        playerCounts = new int[servers];
+        for (int i = 0; i < servers; i++) {
+            String name = "lobby" + i;
+            //roomy enough that a whole iteration of placements never fills the network
+            lobbies.add(new LobbyServer(name, 1_000_000_000));
+            playerCounts[i] = random.nextInt(200);
+            queueServers.add(name).online = i % 8 != 7;
+        }
+        selector = new LobbySelector(policy);
+        QueueManager queueManager = queueServers.queueManager;
+        AdaptedPlayer player = FakeQueueServers.player(UUID.nameUUIDFromBytes(new byte[]{42}), "player", "origin");
+        joinable = serverName -> {
+            QueueServer queueServer = queueManager.findServer(serverName);
+            return queueServer != null && queueServer.isOnline() && queueServer.isJoinable(player);
+        };
+    }
+
+    //reservations pile up during an iteration, start each one from the snapshot
+    @Setup(Level.Iteration)
+    public void refresh()
+    {
+        selector.refresh(lobbies, this::playerCount, serverName -> queueServers.get(serverName).online);
+    }
+
+    private int playerCount(String serverName)
+    {
+        return playerCounts[Integer.parseInt(serverName.substring(5))];
+    }
+
+    @Benchmark
+    public LobbyOccupancy select()
+    {
+        return selector.select(UUID.randomUUID(), joinable);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public LobbyOccupancy selectContended()
+    {
+        return selector.select(UUID.randomUUID(), joinable);
+    }
+
+    @Benchmark
+    public LobbyOccupancy[] rebuildSnapshot()
+    {
+        refresh();
+        return selector.getLobbies();
+    }
+}
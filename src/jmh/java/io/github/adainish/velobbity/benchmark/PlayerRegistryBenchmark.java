@@ -0,0 +1,87 @@
+package io.github.adainish.velobbity.benchmark;
+
+import io.github.adainish.velobbity.Velobbbity;
+import io.github.adainish.velobbity.data.TransferState;
+import io.github.adainish.velobbity.data.VelobbityPlayer;
+import io.github.adainish.velobbity.fake.FakePlugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * The player registry under contention from four threads, as during a wave of logins and queue attempts.
+ * A fixed population of players is online, the churn benchmark logs players in and out of a separate pool.
+ */
+@State(Scope.Benchmark)
+@Threads(4)
+public class PlayerRegistryBenchmark
+{
+    private static final int ONLINE = 8192;
+
+    private Velobbbity plugin;
+    private UUID[] online;
+    private UUID[] churn;
+
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            next = (int) (Thread.currentThread().getId() * 7919);
+        }
+
+        int next(int bound)
+        {
+            return (next++ & Integer.MAX_VALUE) % bound;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        plugin = FakePlugin.install();
+        Random random = new Random(42);
+        online = new UUID[ONLINE];
+        churn = new UUID[ONLINE];
+        for (int i = 0; i < ONLINE; i++) {
+            online[i] = new UUID(random.nextLong(), random.nextLong());
+            churn[i] = new UUID(random.nextLong(), random.nextLong());
+            plugin.getOrCreatePlayer(online[i], "player" + i);
+        }
+    }
+
+    @Benchmark
+    public VelobbityPlayer lookupOnline(Cursor cursor)
+    {
+        return plugin.getOrCreatePlayer(online[cursor.next(ONLINE)], "");
+    }
+
+    @Benchmark
+    public VelobbityPlayer loginLogout(Cursor cursor)
+    {
+        UUID uuid = churn[cursor.next(ONLINE)];
+        VelobbityPlayer player = plugin.getOrCreatePlayer(uuid, "");
+        plugin.sessions.remove(uuid);
+        return player;
+    }
+
+    //the compare-and-set every transfer step goes through, threads race on the same players
+    @Benchmark
+    public boolean beginAndResetTransfer(Cursor cursor)
+    {
+        VelobbityPlayer player = plugin.getOrCreatePlayer(online[cursor.next(64)], "");
+        boolean began = player.beginTransfer(Velobbbity.TRANSFER_STALE_MILLIS);
+        if (began)
+            player.transition(TransferState.TO_LOBBY, TransferState.AT_ORIGIN);
+        return began;
+    }
+}
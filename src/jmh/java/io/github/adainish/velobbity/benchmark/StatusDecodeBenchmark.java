@@ -0,0 +1,89 @@
+package io.github.adainish.velobbity.benchmark;
+
+import io.github.adainish.velobbity.PlayerStatusSubscriber;
+import io.github.adainish.velobbity.Velobbbity;
+import io.github.adainish.velobbity.fake.FakePlugin;
+import io.github.adainish.velobbity.redis.PlayerStatus;
+import io.github.adainish.velobbity.redis.PlayerStatusCache;
+import io.github.adainish.velobbity.redis.StatusFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Handling player status messages as the subscriber's workers do, for a single update, a full batch frame
+ * and the legacy text form. Updates are SYNCING, so handling ends at the status cache rather than a redirect.
+ * Every player has a session here, as records for players on other proxies are skipped before the cache.
+ */
+@State(Scope.Benchmark)
+public class StatusDecodeBenchmark
+{
+    private static final int BATCH = 64;
+
+    private byte[] single;
+    private byte[] batch;
+    private byte[] legacy;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        Velobbbity plugin = FakePlugin.install();
+        plugin.playerStatusCache = new PlayerStatusCache(uuid -> true, 10000, 30000);
+        Random random = new Random(42);
+        StatusFrame.Writer writer = new StatusFrame.Writer(1024);
+        writer.add(player(plugin, random), PlayerStatus.SYNCING, System.currentTimeMillis(), "survival");
+        single = writer.toByteArray();
+        writer.reset();
+        for (int i = 0; i < BATCH; i++)
+            writer.add(player(plugin, random), PlayerStatus.SYNCING, System.currentTimeMillis(), "survival");
+        batch = writer.toByteArray();
+        legacy = (player(plugin, random) + ":syncing").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static UUID player(Velobbbity plugin, Random random)
+    {
+        UUID uuid = new UUID(random.nextLong(), random.nextLong());
+        plugin.getOrCreatePlayer(uuid, "player");
+        return uuid;
+    }
+
+    @Benchmark
+    public void handleSingleFrame()
+    {
+        PlayerStatusSubscriber.handle(single);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void handleBatchFrame()
+    {
+        PlayerStatusSubscriber.handle(batch);
+    }
+
+    @Benchmark
+    public void handleLegacyText()
+    {
+        PlayerStatusSubscriber.handle(legacy);
+    }
+
+    //decoding alone, without the status cache
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void readBatchFrame(Blackhole blackhole)
+    {
+        StatusFrame.Reader reader = new StatusFrame.Reader();
+        reader.wrap(batch);
+        while (reader.next()) {
+            blackhole.consume(reader.mostSignificantBits());
+            blackhole.consume(reader.status());
+        }
+    }
+}
@@ -1,25 +1,113 @@
 package io.github.adainish.velobbity;
 
-import redis.clients.jedis.JedisPubSub;
+import io.github.adainish.velobbity.data.PlayerSessionStore;
+import io.github.adainish.velobbity.redis.PlayerStatus;
+import io.github.adainish.velobbity.redis.PlayerStatusCache;
+import io.github.adainish.velobbity.redis.StatusFrame;
+import io.github.adainish.velobbity.redis.StatusSubscriptionSupervisor;
+import redis.clients.jedis.BinaryJedisPubSub;
 
+import java.nio.charset.StandardCharsets;
 import java.util.UUID;
 
-public class PlayerStatusSubscriber extends JedisPubSub {
+public class PlayerStatusSubscriber extends BinaryJedisPubSub {
+
+    //readers are reused per worker thread so decoding a frame allocates nothing
+    private static final ThreadLocal<StatusFrame.Reader> READERS = ThreadLocal.withInitial(StatusFrame.Reader::new);
+
+    //keyspace notification channels are prefixed with this, followed by the key
+    private static final byte[] KEYSPACE_PREFIX = "__keyspace@".getBytes(StandardCharsets.US_ASCII);
+
+    private final StatusSubscriptionSupervisor supervisor;
+    private final byte[] keyspacePattern;
+
+    public PlayerStatusSubscriber(StatusSubscriptionSupervisor supervisor, byte[] keyspacePattern) {
+        this.supervisor = supervisor;
+        this.keyspacePattern = keyspacePattern;
+    }
 
     @Override
-    public void onMessage(String channel, String message) {
-        Velobbbity.instance.getLogger().info("Received message: " + message);
-        // Parse the message to get the player ID and status
-        String[] parts = message.split(" ");
-        UUID playerId = UUID.fromString(parts[0]);
-        String status = parts[1];
-
-        // Check the status and redirect the player if necessary
-        if (status.equals("safe")) {
-            // Redirect the player
-            //log redirect
-            Velobbbity.instance.getLogger().info("Redirecting player " + playerId);
-            Velobbbity.instance.redirect(playerId);
+    public void onSubscribe(byte[] channel, int subscribedChannels) {
+        supervisor.onSubscribed();
+        //watch the status keys on the same connection, so the status cache hears about every change
+        if (keyspacePattern != null)
+            psubscribe(keyspacePattern);
+    }
+
+    @Override
+    public void onPMessage(byte[] pattern, byte[] channel, byte[] message) {
+        //cheap enough to do inline, and must not be dropped like regular messages can be
+        PlayerStatusCache cache = Velobbbity.instance.playerStatusCache;
+        if (cache == null || channel.length < KEYSPACE_PREFIX.length)
+            return;
+        int keyStart = indexOf(channel, (byte) ':') + 1;
+        if (keyStart <= 0 || channel.length - keyStart != 36)
+            return;
+        try {
+            cache.invalidate(UUID.fromString(new String(channel, keyStart, 36, StandardCharsets.US_ASCII)));
+        } catch (IllegalArgumentException ignored) {
+            //some other key shaped like a uuid
         }
     }
+
+    @Override
+    public void onMessage(byte[] channel, byte[] message) {
+        //never do work on the redis socket thread, hand off to the workers
+        supervisor.submit(message, PlayerStatusSubscriber::handle);
+    }
+
+    public static void handle(byte[] message) {
+        StatusFrame.Reader reader = READERS.get();
+        if (reader.wrap(message)) {
+            PlayerSessionStore sessions = Velobbbity.instance.sessions;
+            while (reader.next()) {
+                //most records are for players on other proxies, those are skipped on the two longs without building a UUID
+                if (sessions.get(reader.mostSignificantBits(), reader.leastSignificantBits()) == null)
+                    continue;
+                UUID playerId = reader.uuid();
+                remember(playerId, reader.status(), reader.hasTimestamp() ? reader.timestamp() : -1);
+                // Check the status and redirect the player if necessary
+                if (reader.status() == PlayerStatus.SAFE)
+                    onSafe(playerId);
+            }
+            return;
+        }
+        //plain text message from an older publisher, "uuid:status" or "uuid status"
+        String text = new String(message, StandardCharsets.UTF_8).trim();
+        int separator = text.indexOf(':');
+        if (separator < 0)
+            separator = text.indexOf(' ');
+        if (separator < 0)
+            throw new IllegalArgumentException("Malformed player status message: " + text);
+        UUID playerId = UUID.fromString(text.substring(0, separator));
+        PlayerStatus status = PlayerStatus.fromString(text.substring(separator + 1));
+        //the plain text form does not say when it was reported
+        remember(playerId, status, -1);
+        if (status == PlayerStatus.SAFE)
+            onSafe(playerId);
+    }
+
+    private static void remember(UUID playerId, PlayerStatus status, long reportedAt) {
+        PlayerStatusCache cache = Velobbbity.instance.playerStatusCache;
+        if (cache != null && status != PlayerStatus.UNKNOWN)
+            cache.put(playerId, status.name, reportedAt);
+        //their data is changing again, a pass from an earlier safe lookup no longer holds
+        if (status != PlayerStatus.SAFE && status != PlayerStatus.UNKNOWN)
+            Velobbbity.instance.statusCleared.remove(playerId);
+    }
+
+    private static int indexOf(byte[] bytes, byte value) {
+        for (int i = KEYSPACE_PREFIX.length; i < bytes.length; i++) {
+            if (bytes[i] == value)
+                return i;
+        }
+        return -1;
+    }
+
+    private static void onSafe(UUID playerId) {
+        // Redirect the player
+        //log redirect
+        Velobbbity.instance.getLogger().info("Redirecting player " + playerId);
+        Velobbbity.instance.redirect(playerId);
+    }
 }
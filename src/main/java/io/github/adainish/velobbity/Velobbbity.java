@@ -1,20 +1,53 @@
 package io.github.adainish.velobbity;
 
-import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
 import com.google.inject.Inject;
 import com.velocitypowered.api.event.connection.DisconnectEvent;
 import com.velocitypowered.api.event.connection.PostLoginEvent;
+import com.velocitypowered.api.event.player.KickedFromServerEvent;
 import com.velocitypowered.api.event.player.ServerConnectedEvent;
 import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.plugin.Plugin;
 import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import io.github.adainish.velobbity.command.VelobbityCommand;
 import io.github.adainish.velobbity.configuration.Config;
+import io.github.adainish.velobbity.configuration.ConfigWatcher;
 import io.github.adainish.velobbity.data.LobbyServer;
+import io.github.adainish.velobbity.data.PlayerSessionStore;
+import io.github.adainish.velobbity.data.ServerNames;
+import io.github.adainish.velobbity.data.ServerSet;
 import io.github.adainish.velobbity.configuration.GSON;
+import io.github.adainish.velobbity.data.TransferState;
 import io.github.adainish.velobbity.data.VelobbityPlayer;
+import io.github.adainish.velobbity.lobby.AdmissionController;
+import io.github.adainish.velobbity.lobby.LobbyDefinitions;
+import io.github.adainish.velobbity.lobby.LobbyHealthMonitor;
+import io.github.adainish.velobbity.lobby.LobbyOccupancy;
+import io.github.adainish.velobbity.lobby.LobbyPlacement;
+import io.github.adainish.velobbity.lobby.LobbySelector;
+import io.github.adainish.velobbity.lobby.RebalancePlanner;
+import io.github.adainish.velobbity.lobby.SelectionPolicy;
+import io.github.adainish.velobbity.metrics.Metrics;
+import io.github.adainish.velobbity.metrics.MetricsHttpServer;
+import io.github.adainish.velobbity.redis.ClusterOccupancy;
+import io.github.adainish.velobbity.redis.PlayerStatus;
+import io.github.adainish.velobbity.redis.PlayerStatusCache;
+import io.github.adainish.velobbity.redis.PlayerStatusLookup;
+import io.github.adainish.velobbity.redis.StatusSubscriptionSupervisor;
+import io.github.adainish.velobbity.redis.PrepareTransferNotice;
+import io.github.adainish.velobbity.redis.PrepareTransferPublisher;
+import io.github.adainish.velobbity.redis.StatusUpdatePublisher;
+import io.github.adainish.velobbity.redis.TransferIntentStore;
+import io.github.adainish.velobbity.transfer.DirectTransferRules;
+import io.github.adainish.velobbity.transfer.HandoffCoordinator;
+import io.github.adainish.velobbity.transfer.LobbyRebalancer;
+import io.github.adainish.velobbity.transfer.RedirectRetryScheduler;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.Style;
 import net.kyori.adventure.text.format.TextColor;
@@ -26,19 +59,26 @@ import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.JedisPubSub;
 import us.ajg0702.queue.api.AjQueueAPI;
+import us.ajg0702.queue.api.PlatformMethods;
 import us.ajg0702.queue.api.events.PreQueueEvent;
 import us.ajg0702.queue.api.players.AdaptedPlayer;
+import us.ajg0702.queue.api.queues.QueueManager;
 import us.ajg0702.queue.api.queues.QueueServer;
 import us.ajg0702.queue.api.server.AdaptedServer;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Plugin(
         id = "velobbity",
@@ -50,16 +90,57 @@ import java.util.concurrent.TimeUnit;
 )
 public class Velobbbity {
 
-    public HashMap<UUID, VelobbityPlayer> cachedUUIDMappedData = new HashMap<>();
-    public HashMap<String, LobbyServer> configuredLobbyServers = new HashMap<>();
+    //a transfer that has not advanced for this long is considered abandoned and may be restarted
+    public static final long TRANSFER_STALE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    public final PlayerSessionStore sessions = new PlayerSessionStore();
+    //sessions of players no longer on the proxy are dropped after this long without being touched
+    public int sessionIdleMillis = (int) TimeUnit.MINUTES.toMillis(10);
+    public int sessionSweepMillis = (int) TimeUnit.SECONDS.toMillis(30);
+    //swapped as a whole on reload, read it once per decision
+    public volatile LobbyDefinitions lobbyDefinitions = LobbyDefinitions.EMPTY;
+    //lobbies that keep their players but take no new ones
+    public volatile ServerSet drainingLobbies = ServerSet.EMPTY;
+    public ConfigWatcher configWatcher;
     public String directory = "config/Velobbity";
     @Inject
     private Logger logger;
 
     public static Velobbbity instance;
     public AjQueueAPI ajQueueAPI;
+    public QueueManager queueManager;
+    public PlatformMethods platformMethods;
     public JedisPool jedisPool;
+    public PlayerStatusLookup playerStatusLookup;
+    public PlayerStatusCache playerStatusCache;
+    public StatusSubscriptionSupervisor statusSubscription;
+    public StatusUpdatePublisher statusPublisher;
+    public PrepareTransferPublisher prepareTransferPublisher;
+    public ClusterOccupancy clusterOccupancy;
+    public TransferIntentStore transferIntentStore;
+    public int clusterSyncMillis = 1000;
+    public HandoffCoordinator handoffCoordinator;
+    public LobbyRebalancer lobbyRebalancer;
+    //routes that skip the lobby when the player's status is safe and at most directTransferFreshMillis old
+    public volatile DirectTransferRules directTransferRules = DirectTransferRules.NONE;
+    public int directTransferFreshMillis = 5000;
+    //move players off a lobby as soon as its circuit opens, off by default as a few slow pings are enough to open it
+    public boolean evacuateFailedLobbies = false;
+    public RedirectRetryScheduler redirectRetryScheduler;
+    //players whose queue attempt from a lobby was held back while their data synced, checked again until it is done
+    public RedirectRetryScheduler statusRecheckScheduler;
+    //players whose deferred status check passed, their next PreQueueEvent within STATUS_CLEARED_MILLIS is let through
+    public final Map<UUID, Long> statusCleared = new ConcurrentHashMap<>();
+    //the cleared player is re-queued right away, a pass not used by then belongs to an attempt that went elsewhere
+    private static final long STATUS_CLEARED_MILLIS = 5000;
     public Config config;
+    public LobbySelector lobbySelector = new LobbySelector(SelectionPolicy.LEAST_LOADED);
+    public int occupancySnapshotMillis = 1000;
+    public AdmissionController admissionController = new AdmissionController();
+    public LobbyHealthMonitor lobbyHealth;
+    public boolean healthProbing = true;
+    public int healthProbeMillis = 2000;
+    public final Metrics metrics = new Metrics();
+    public MetricsHttpServer metricsHttpServer;
     public boolean canLoad = true;
     private ProxyServer server;
     public Logger getLogger() {
@@ -71,17 +152,28 @@ public class Velobbbity {
     public Velobbbity(ProxyServer server, Logger logger) {
         this.server = server;
         this.logger = logger;
+        this.handoffCoordinator = new HandoffCoordinator(this, server);
+        this.lobbyRebalancer = new LobbyRebalancer(this, server);
+        this.redirectRetryScheduler = new RedirectRetryScheduler(128, 250, this::retryRedirect, this::giveUpRedirect);
+        this.statusRecheckScheduler = new RedirectRetryScheduler(128, 250, this::recheckStatus, this::giveUpStatusRecheck);
+        this.statusRecheckScheduler.baseDelayMillis = 1000;
+        this.statusRecheckScheduler.maxDelayMillis = 5000;
+        this.statusRecheckScheduler.maxAttempts = 15;
+        this.lobbyHealth = new LobbyHealthMonitor(serverName -> server.getServer(serverName)
+                .<CompletableFuture<?>>map(RegisteredServer::ping)
+                .orElseGet(() -> CompletableFuture.failedFuture(new IllegalStateException("Unknown server " + serverName))));
 
         logger.info("Initialised Velobbities main class.");
     }
 
+    private static final Type LOBBY_SERVER_LIST = new TypeToken<List<LobbyServer>>() {}.getType();
+
     public JsonElement toJSONElement(List<LobbyServer> lobbyServers) {
-        return GSON.PRETTY_MAIN_GSON().toJsonTree(lobbyServers);
+        return GSON.PRETTY_MAIN_GSON().toJsonTree(lobbyServers, LOBBY_SERVER_LIST);
     }
 
     public List<LobbyServer> fromJSONElement(JsonElement jsonElement) {
-        Type listType = new TypeToken<List<LobbyServer>>() {}.getType();
-        return GSON.PRETTY_MAIN_GSON().fromJson(jsonElement, listType);
+        return GSON.PRETTY_MAIN_GSON().fromJson(jsonElement, LOBBY_SERVER_LIST);
     }
 
     public void setupConfig()
@@ -124,28 +216,159 @@ public class Velobbbity {
                 for (int i = 1; i < 4; i++) {
                     LobbyServer lobbyServer = new LobbyServer("lobby" + i, 100);
                     lobbyServers.add(lobbyServer);
-                    this.configuredLobbyServers.put(lobbyServer.serverName, lobbyServer);
                 }
+                this.lobbyDefinitions = new LobbyDefinitions(lobbyServers);
                 this.config.setSubConfigElement("configuration", "servers", toJSONElement(lobbyServers));
                 this.config.addSubComment("configuration", "servers", "Server name and max players for lobby servers");
                 logger.atLevel(Level.INFO).log("Database configuration file created with default values.");
             } else {
-                //get json object from config file
-                JsonElement configSection = this.config.get("configuration");
-                JsonElement serversSection = configSection.getAsJsonObject().get("servers");
-                List<LobbyServer> lobbyServers = fromJSONElement(serversSection);
-                lobbyServers.forEach(lobbyServer -> {
-                    logger.atLevel(Level.INFO).log("Loaded lobby server: " + lobbyServer.serverName + " with max players: " + lobbyServer.maxPlayers);
-                    this.configuredLobbyServers.put(lobbyServer.serverName, lobbyServer);
-                });
+                this.lobbyDefinitions = readLobbyDefinitions();
+                logLobbyDefinitions(lobbyDefinitions);
                 logger.atLevel(Level.INFO).log("Loaded configuration file and servers.");
             }
+            this.admissionController.configure(lobbyDefinitions.servers());
+            //lobby selection
+            String selectionPolicy = this.config.getSubConfigString("configuration", "selectionPolicy");
+            if (selectionPolicy == null) {
+                this.config.setSubConfigElement("configuration", "selectionPolicy", SelectionPolicy.LEAST_LOADED.name());
+                this.config.addSubComment("configuration", "selectionPolicy", "How a lobby is picked: LEAST_LOADED, POWER_OF_TWO_CHOICES or CONSISTENT_HASH (players return to the same lobby)");
+            }
+            Integer snapshotMillis = this.config.getSubConfigInt("configuration", "occupancySnapshotMillis");
+            if (snapshotMillis == null) {
+                this.config.setSubConfigElement("configuration", "occupancySnapshotMillis", occupancySnapshotMillis);
+                this.config.addSubComment("configuration", "occupancySnapshotMillis", "How often lobby player counts are refreshed, in milliseconds");
+            } else {
+                this.occupancySnapshotMillis = Math.max(100, snapshotMillis);
+            }
+            Double affinityLoadFactor = this.config.getSubConfigDouble("configuration", "affinityLoadFactor");
+            if (affinityLoadFactor == null) {
+                this.config.setSubConfigElement("configuration", "affinityLoadFactor", lobbySelector.affinityLoadFactor);
+                this.config.addSubComment("configuration", "affinityLoadFactor", "CONSISTENT_HASH only: how far above the average fill a lobby may go before its players are sent to the next lobby");
+            } else {
+                this.lobbySelector.affinityLoadFactor = Math.max(1.0, affinityLoadFactor);
+            }
+            this.lobbySelector.policy = SelectionPolicy.fromString(selectionPolicy, SelectionPolicy.LEAST_LOADED);
+            logger.atLevel(Level.INFO).log("Using lobby selection policy: " + this.lobbySelector.policy);
+            //lobby handoff
+            if (!this.config.hasKey("transfer")) {
+                this.config.setSubConfigElement("transfer", "minimumDwellMillis", (int) handoffCoordinator.minimumDwellMillis);
+                this.config.addSubComment("transfer", "minimumDwellMillis", "Shortest time a player stays in a lobby before moving on, in milliseconds");
+                this.config.setSubConfigElement("transfer", "handoffTimeoutMillis", (int) handoffCoordinator.handoffTimeoutMillis);
+                this.config.addSubComment("transfer", "handoffTimeoutMillis", "Longest time a player waits in a lobby for their data sync before moving on anyway, in milliseconds");
+                this.config.setSubConfigElement("transfer", "noRedisHandoffTimeoutMillis", (int) handoffCoordinator.noRedisHandoffTimeoutMillis);
+                this.config.addSubComment("transfer", "noRedisHandoffTimeoutMillis", "Time a player spends in a lobby before moving on when redis is not configured and no sync signal can arrive, in milliseconds");
+                this.config.setSubConfigElement("transfer", "retryBaseMillis", (int) redirectRetryScheduler.baseDelayMillis);
+                this.config.setSubConfigElement("transfer", "retryMaxMillis", (int) redirectRetryScheduler.maxDelayMillis);
+                this.config.setSubConfigElement("transfer", "retryMaxAttempts", redirectRetryScheduler.maxAttempts);
+                this.config.addSubComment("transfer", "retryMaxAttempts", "Lobby redirect retries back off from retryBaseMillis up to retryMaxMillis and stop after this many attempts");
+                logger.atLevel(Level.INFO).log("Transfer configuration created with default values.");
+            } else {
+                handoffCoordinator.minimumDwellMillis = configInt("transfer", "minimumDwellMillis", (int) handoffCoordinator.minimumDwellMillis);
+                handoffCoordinator.handoffTimeoutMillis = configInt("transfer", "handoffTimeoutMillis", (int) handoffCoordinator.handoffTimeoutMillis);
+                handoffCoordinator.noRedisHandoffTimeoutMillis = configInt("transfer", "noRedisHandoffTimeoutMillis", (int) handoffCoordinator.noRedisHandoffTimeoutMillis);
+                redirectRetryScheduler.baseDelayMillis = configInt("transfer", "retryBaseMillis", (int) redirectRetryScheduler.baseDelayMillis);
+                redirectRetryScheduler.maxDelayMillis = configInt("transfer", "retryMaxMillis", (int) redirectRetryScheduler.maxDelayMillis);
+                redirectRetryScheduler.maxAttempts = configInt("transfer", "retryMaxAttempts", redirectRetryScheduler.maxAttempts);
+                logger.atLevel(Level.INFO).log("Loaded transfer configuration.");
+            }
+            //player sessions
+            if (!this.config.hasKey("sessions")) {
+                this.config.setSubConfigElement("sessions", "idleEvictMillis", sessionIdleMillis);
+                this.config.addSubComment("sessions", "idleEvictMillis", "Drop the session of a player no longer on this proxy after this long without activity, in milliseconds");
+                this.config.setSubConfigElement("sessions", "sweepIntervalMillis", sessionSweepMillis);
+                logger.atLevel(Level.INFO).log("Sessions configuration created with default values.");
+            } else {
+                this.sessionIdleMillis = Math.max(1000, configInt("sessions", "idleEvictMillis", sessionIdleMillis));
+                this.sessionSweepMillis = Math.max(1000, configInt("sessions", "sweepIntervalMillis", sessionSweepMillis));
+                logger.atLevel(Level.INFO).log("Loaded sessions configuration.");
+            }
+            //lobby health probing
+            if (!this.config.hasKey("health")) {
+                this.config.setSubConfigElement("health", "enabled", healthProbing);
+                this.config.addSubComment("health", "enabled", "Ping lobbies in the background and stop sending players to lobbies that fail or lag");
+                this.config.setSubConfigElement("health", "probeIntervalMillis", healthProbeMillis);
+                this.config.setSubConfigElement("health", "probeTimeoutMillis", (int) lobbyHealth.probeTimeoutMillis);
+                this.config.setSubConfigElement("health", "slowResponseMillis", (int) lobbyHealth.slowResponseMillis);
+                this.config.addSubComment("health", "slowResponseMillis", "A ping answered slower than this counts as a failure");
+                this.config.setSubConfigElement("health", "failureThreshold", lobbyHealth.failureThreshold);
+                this.config.setSubConfigElement("health", "openMillis", (int) lobbyHealth.openMillis);
+                this.config.setSubConfigElement("health", "halfOpenTrials", lobbyHealth.halfOpenTrials);
+                this.config.addSubComment("health", "halfOpenTrials", "After failureThreshold failed pings a lobby takes no players for openMillis, then this many trial players until pings recover");
+                logger.atLevel(Level.INFO).log("Health configuration created with default values.");
+            } else {
+                this.healthProbing = configBoolean("health", "enabled", healthProbing);
+                this.healthProbeMillis = Math.max(100, configInt("health", "probeIntervalMillis", healthProbeMillis));
+                lobbyHealth.probeTimeoutMillis = configInt("health", "probeTimeoutMillis", (int) lobbyHealth.probeTimeoutMillis);
+                lobbyHealth.slowResponseMillis = configInt("health", "slowResponseMillis", (int) lobbyHealth.slowResponseMillis);
+                lobbyHealth.failureThreshold = Math.max(1, configInt("health", "failureThreshold", lobbyHealth.failureThreshold));
+                lobbyHealth.openMillis = configInt("health", "openMillis", (int) lobbyHealth.openMillis);
+                lobbyHealth.halfOpenTrials = configInt("health", "halfOpenTrials", lobbyHealth.halfOpenTrials);
+                logger.atLevel(Level.INFO).log("Loaded health configuration.");
+            }
+            //skipping the lobby for players whose data is already safe
+            if (!this.config.hasKey("directTransfer")) {
+                this.config.setSubConfigElement("directTransfer", "enabled", false);
+                this.config.addSubComment("directTransfer", "enabled", "Let a queue attempt go straight to its target, without a lobby hop, when redis says the player's data is already safe");
+                this.config.setSubConfigElement("directTransfer", "freshnessMillis", directTransferFreshMillis);
+                this.config.addSubComment("directTransfer", "freshnessMillis", "A safe status the backend reported longer ago than this, or without saying when, routes through a lobby");
+                JsonArray allow = new JsonArray();
+                allow.add("*->*");
+                this.config.setSubConfigElement("directTransfer", "allow", allow);
+                this.config.setSubConfigElement("directTransfer", "deny", new JsonArray());
+                this.config.addSubComment("directTransfer", "deny", "Routes written origin->destination, * matches any server. A route must match an allow rule and no deny rule");
+                logger.atLevel(Level.INFO).log("Direct transfer configuration created with default values.");
+            } else {
+                Integer freshnessMillis = this.config.getSubConfigInt("directTransfer", "freshnessMillis");
+                if (freshnessMillis == null) {
+                    freshnessMillis = directTransferFreshMillis;
+                    this.config.setSubConfigElement("directTransfer", "freshnessMillis", freshnessMillis);
+                }
+                this.directTransferFreshMillis = Math.max(0, freshnessMillis);
+                Boolean directTransferEnabled = this.config.getSubConfigBoolean("directTransfer", "enabled");
+                if (directTransferEnabled == null) {
+                    directTransferEnabled = false;
+                    this.config.setSubConfigElement("directTransfer", "enabled", false);
+                }
+                if (directTransferEnabled) {
+                    try {
+                        this.directTransferRules = DirectTransferRules.parse(
+                                stringList(this.config.getSubConfigElement("directTransfer", "allow")),
+                                stringList(this.config.getSubConfigElement("directTransfer", "deny")));
+                    } catch (IllegalArgumentException e) {
+                        logger.atLevel(Level.ERROR).log(e.getMessage() + ", direct transfers stay off.");
+                    }
+                }
+                logger.atLevel(Level.INFO).log("Loaded direct transfer configuration.");
+            }
+            //rebalancing drained and failed lobbies
+            if (!this.config.hasKey("rebalance")) {
+                this.config.setSubConfigElement("rebalance", "waveSize", lobbyRebalancer.waveSize);
+                this.config.setSubConfigElement("rebalance", "waveMillis", (int) lobbyRebalancer.waveMillis);
+                this.config.addSubComment("rebalance", "waveMillis", "Players leaving a drained or failed lobby are moved waveSize at a time, every waveMillis");
+                this.config.setSubConfigElement("rebalance", "evacuateFailedLobbies", evacuateFailedLobbies);
+                this.config.addSubComment("rebalance", "evacuateFailedLobbies", "Move players off a lobby once its health checks open its circuit. Slow answers count as failures too, so only turn this on with a generous health.slowResponseMillis");
+                logger.atLevel(Level.INFO).log("Rebalance configuration created with default values.");
+            } else {
+                lobbyRebalancer.waveSize = Math.max(1, configInt("rebalance", "waveSize", lobbyRebalancer.waveSize));
+                lobbyRebalancer.waveMillis = Math.max(50, configInt("rebalance", "waveMillis", (int) lobbyRebalancer.waveMillis));
+                this.evacuateFailedLobbies = configBoolean("rebalance", "evacuateFailedLobbies", evacuateFailedLobbies);
+                logger.atLevel(Level.INFO).log("Loaded rebalance configuration.");
+            }
+            if (evacuateFailedLobbies)
+                lobbyHealth.onOpen = this::evacuateFailedLobby;
             //redis connection
             if (!this.config.hasKey("redis")) {
                 this.config.setSubConfigElement("redis", "host", "localhost");
                 this.config.setSubConfigElement("redis", "port", 6379);
                 this.config.setSubConfigElement("redis", "password", "");
                 this.config.setSubConfigElement("redis", "database", 0);
+                this.config.setSubConfigElement("redis", "statusTimeoutMillis", 250);
+                this.config.addSubComment("redis", "statusTimeoutMillis", "Deadline for a player status lookup before the queue continues without it");
+                this.config.setSubConfigElement("redis", "statusBatchWindowMillis", 2);
+                this.config.setSubConfigElement("redis", "statusBatchSize", 64);
+                this.config.addSubComment("redis", "statusBatchSize", "Status lookups are collected for statusBatchWindowMillis or until this many are waiting, then fetched with one MGET");
+                this.config.setSubConfigElement("redis", "intentTtlSeconds", 600);
+                this.config.addSubComment("redis", "intentTtlSeconds", "How long a player's pending transfer is remembered in redis, across proxies and restarts");
                 logger.atLevel(Level.INFO).log("Redis configuration file created with default values.");
             } else {
                 //get json object from config file
@@ -154,6 +377,30 @@ public class Velobbbity {
                 int port = configSection.getAsJsonObject().get("port").getAsInt();
                 String password = configSection.getAsJsonObject().get("password").getAsString();
                 int database = configSection.getAsJsonObject().get("database").getAsInt();
+                Integer statusTimeoutMillis = this.config.getSubConfigInt("redis", "statusTimeoutMillis");
+                if (statusTimeoutMillis == null) {
+                    statusTimeoutMillis = 250;
+                    this.config.setSubConfigElement("redis", "statusTimeoutMillis", statusTimeoutMillis);
+                }
+                Integer statusBatchWindowMillis = this.config.getSubConfigInt("redis", "statusBatchWindowMillis");
+                Integer statusBatchSize = this.config.getSubConfigInt("redis", "statusBatchSize");
+                if (statusBatchWindowMillis == null || statusBatchSize == null) {
+                    statusBatchWindowMillis = 2;
+                    statusBatchSize = 64;
+                    this.config.setSubConfigElement("redis", "statusBatchWindowMillis", statusBatchWindowMillis);
+                    this.config.setSubConfigElement("redis", "statusBatchSize", statusBatchSize);
+                }
+                Integer intentTtlSeconds = this.config.getSubConfigInt("redis", "intentTtlSeconds");
+                if (intentTtlSeconds == null) {
+                    intentTtlSeconds = 600;
+                    this.config.setSubConfigElement("redis", "intentTtlSeconds", intentTtlSeconds);
+                }
+                Boolean prepareTransfer = this.config.getSubConfigBoolean("redis", "publishPrepareTransfer");
+                if (prepareTransfer == null) {
+                    prepareTransfer = true;
+                    this.config.setSubConfigElement("redis", "publishPrepareTransfer", prepareTransfer);
+                    this.config.addSubComment("redis", "publishPrepareTransfer", "Tell the origin server on the " + PrepareTransferNotice.CHANNEL + " channel that a player is leaving, so it can start saving before they reach a lobby");
+                }
                 logger.atLevel(Level.INFO).log("Loaded redis configuration.");
 
 //                try {
@@ -165,8 +412,51 @@ public class Velobbbity {
 
                 final JedisPoolConfig poolConfig = buildPoolConfig();
                 this.jedisPool = new JedisPool(poolConfig, host, port, 1000, password, database);
-                this.subscribeToPlayerStatusUpdates();
+                this.playerStatusLookup = new PlayerStatusLookup(jedisPool, 4, statusTimeoutMillis, statusBatchWindowMillis, statusBatchSize);
+                this.statusPublisher = new StatusUpdatePublisher(jedisPool, "playerStatusUpdates", logger, 256, 5);
+                this.transferIntentStore = new TransferIntentStore(jedisPool, logger, intentTtlSeconds, 50);
+                if (prepareTransfer)
+                    this.prepareTransferPublisher = new PrepareTransferPublisher(jedisPool, logger, 4096);
+                this.playerStatusCache = new PlayerStatusCache(uuid -> server.getPlayer(uuid).isPresent(), 10000, 30000);
+                this.subscribeToPlayerStatusUpdates(database);
+            }
+            //occupancy shared with other proxies
+            if (!this.config.hasKey("cluster")) {
+                this.config.setSubConfigElement("cluster", "enabled", false);
+                this.config.addSubComment("cluster", "enabled", "Share lobby occupancy with other proxies through redis, so they do not overfill the same lobby");
+                this.config.setSubConfigElement("cluster", "proxyId", UUID.randomUUID().toString().substring(0, 8));
+                this.config.setSubConfigElement("cluster", "syncIntervalMillis", clusterSyncMillis);
+                this.config.setSubConfigElement("cluster", "leaseMillis", 5000);
+                this.config.addSubComment("cluster", "leaseMillis", "A proxy that has not reported for this long no longer counts towards lobby occupancy");
+                logger.atLevel(Level.INFO).log("Cluster configuration created with default values.");
+            } else if (configBoolean("cluster", "enabled", false) && jedisPool != null) {
+                this.clusterSyncMillis = Math.max(100, configInt("cluster", "syncIntervalMillis", clusterSyncMillis));
+                String proxyId = configString("cluster", "proxyId", UUID.randomUUID().toString().substring(0, 8));
+                this.clusterOccupancy = new ClusterOccupancy(jedisPool, logger, proxyId, configInt("cluster", "leaseMillis", 5000));
+                logger.atLevel(Level.INFO).log("Sharing lobby occupancy as proxy " + clusterOccupancy.proxyId + ".");
+            }
+            //metrics endpoint
+            if (!this.config.hasKey("metrics")) {
+                this.config.setSubConfigElement("metrics", "enabled", false);
+                this.config.addSubComment("metrics", "enabled", "Serve metrics in the Prometheus text format on http://host:port/metrics");
+                this.config.setSubConfigElement("metrics", "host", "127.0.0.1");
+                this.config.setSubConfigElement("metrics", "port", 9464);
+                logger.atLevel(Level.INFO).log("Metrics configuration created with default values.");
+            } else if (configBoolean("metrics", "enabled", false)) {
+                String host = configString("metrics", "host", "127.0.0.1");
+                int port = configInt("metrics", "port", 9464);
+                try {
+                    this.metricsHttpServer = new MetricsHttpServer(metrics, host, port);
+                    logger.atLevel(Level.INFO).log("Serving metrics on http://" + host + ":" + port + "/metrics");
+                } catch (IOException e) {
+                    //metrics are optional, run without them rather than not at all
+                    logger.atLevel(Level.ERROR).log("Could not serve metrics on " + host + ":" + port + ": " + e.getMessage());
+                }
             }
+            //everything above was written behind, make sure a fresh config lands on disk now
+            this.config.flush();
+            this.configWatcher = new ConfigWatcher(configFile.toPath(), 500, this::reloadLobbyDefinitions, logger);
+            this.configWatcher.start();
         } catch (Exception e) {
             //log that the directory could not be created
             logger.atLevel(Level.ERROR).log(e.getMessage());
@@ -174,18 +464,129 @@ public class Velobbbity {
         }
     }
 
-    public void sendPlayerUpdateStatus(UUID playerId, String status) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            jedis.publish("playerStatusUpdates", playerId.toString() + ":" + status);
+    //parse the lobby servers section into a fresh snapshot
+    private LobbyDefinitions readLobbyDefinitions() {
+        //get json object from config file
+        JsonElement configSection = this.config.get("configuration");
+        JsonElement serversSection = configSection.getAsJsonObject().get("servers");
+        return new LobbyDefinitions(fromJSONElement(serversSection));
+    }
+
+    //a key missing from an existing section, e.g. one added by a newer version, is written with its default
+    private int configInt(String key, String subKey, int defaultValue) {
+        Integer value = this.config.getSubConfigInt(key, subKey);
+        if (value == null) {
+            value = defaultValue;
+            this.config.setSubConfigElement(key, subKey, value);
         }
+        return value;
     }
 
-    // Method to receive player's update status
-    public String receivePlayerUpdateStatus(UUID playerId) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            String status = jedis.get(playerId.toString());
-            return status != null ? status : "";
+    private boolean configBoolean(String key, String subKey, boolean defaultValue) {
+        Boolean value = this.config.getSubConfigBoolean(key, subKey);
+        if (value == null) {
+            value = defaultValue;
+            this.config.setSubConfigElement(key, subKey, value);
+        }
+        return value;
+    }
+
+    private String configString(String key, String subKey, String defaultValue) {
+        String value = this.config.getSubConfigString(key, subKey);
+        if (value == null) {
+            value = defaultValue;
+            this.config.setSubConfigElement(key, subKey, value);
+        }
+        return value;
+    }
+
+    //a missing or non-array element reads as an empty list
+    private static List<String> stringList(JsonElement element) {
+        List<String> values = new ArrayList<>();
+        if (element != null && element.isJsonArray())
+            element.getAsJsonArray().forEach(value -> values.add(value.getAsString()));
+        return values;
+    }
+
+    private void logLobbyDefinitions(LobbyDefinitions definitions) {
+        definitions.servers().forEach(lobbyServer -> {
+            logger.atLevel(Level.INFO).log("Loaded lobby server: " + lobbyServer.serverName + " with max players: " + lobbyServer.maxPlayers
+                    + ", connects per second: " + lobbyServer.connectsPerSecond + ", burst: " + lobbyServer.burst);
+        });
+    }
+
+    //called by the config watcher when config.json changed on disk
+    public void reloadLobbyDefinitions() {
+        if (!this.config.reload())
+            return;
+        if (!this.config.hasKey("configuration")) {
+            logger.atLevel(Level.WARN).log("Reloaded configuration has no configuration section, keeping the current lobby servers.");
+            return;
+        }
+        String before = toJSONElement(lobbyDefinitions.servers()).toString();
+        LobbyDefinitions reloaded;
+        try {
+            reloaded = readLobbyDefinitions();
+        } catch (JsonParseException e) {
+            logger.atLevel(Level.WARN).log("Reloaded lobby servers are invalid, keeping the current ones: " + e.getMessage());
+            return;
         }
+        String selectionPolicy = this.config.getSubConfigString("configuration", "selectionPolicy");
+        this.lobbySelector.policy = SelectionPolicy.fromString(selectionPolicy, this.lobbySelector.policy);
+        Double affinityLoadFactor = this.config.getSubConfigDouble("configuration", "affinityLoadFactor");
+        if (affinityLoadFactor != null)
+            this.lobbySelector.affinityLoadFactor = Math.max(1.0, affinityLoadFactor);
+        //our own writes also trigger the watcher, nothing to swap if the lobbies are unchanged
+        if (before.equals(toJSONElement(reloaded.servers()).toString()))
+            return;
+        this.admissionController.configure(reloaded.servers());
+        this.lobbyDefinitions = reloaded;
+        if (queueManager != null)
+            refreshLobbyOccupancy();
+        logLobbyDefinitions(reloaded);
+        logger.atLevel(Level.INFO).log("Reloaded " + reloaded.size() + " lobby servers.");
+    }
+
+    //queued and published together with other updates in one binary frame
+    public void sendPlayerUpdateStatus(UUID playerId, PlayerStatus status, String origin) {
+        statusPublisher.publish(playerId, status, origin);
+    }
+
+    //a status the proxies cannot read would reach them as UNKNOWN, so a typo fails here instead of leaving players waiting
+    public void sendPlayerUpdateStatus(UUID playerId, String status) {
+        PlayerStatus parsed = PlayerStatus.fromString(status);
+        if (parsed == PlayerStatus.UNKNOWN)
+            throw new IllegalArgumentException("Unknown player status: " + status);
+        sendPlayerUpdateStatus(playerId, parsed, null);
+    }
+
+    // Method to receive player's update status, completes with an empty string if none is stored
+    public CompletableFuture<String> receivePlayerUpdateStatus(UUID playerId) {
+        String cached = playerStatusCache.get(playerId);
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
+        return lookupPlayerUpdateStatus(playerId);
+    }
+
+    //always asks redis, and remembers the answer for next time
+    private CompletableFuture<String> lookupPlayerUpdateStatus(UUID playerId) {
+        return lookupStoredStatus(playerId).thenApply(PlayerStatus::statusOf);
+    }
+
+    //the value as stored, status or status:reportedAt
+    private CompletableFuture<String> lookupStoredStatus(UUID playerId) {
+        long version = playerStatusCache.beginLookup(playerId);
+        long start = System.nanoTime();
+        return playerStatusLookup.lookup(playerId).thenApply(value -> {
+            metrics.statusLookup.recordSince(start);
+            playerStatusCache.fill(playerId, PlayerStatus.statusOf(value), PlayerStatus.reportedAtOf(value), version);
+            return value;
+        });
+    }
+
+    //only a sync known to be under way holds a player back, anything else lets them move on as before the gate existed
+    public boolean isStatusClear(String status) {
+        return PlayerStatus.fromString(status) != PlayerStatus.SYNCING;
     }
 
     private JedisPoolConfig buildPoolConfig() {
@@ -193,8 +594,9 @@ public class Velobbbity {
         poolConfig.setMaxTotal(128);
         poolConfig.setMaxIdle(128);
         poolConfig.setMinIdle(16);
-        poolConfig.setTestOnBorrow(true);
-        poolConfig.setTestOnReturn(true);
+        //idle connections are still checked by the evictor, checking on every borrow and return costs a PING each
+        poolConfig.setTestOnBorrow(false);
+        poolConfig.setTestOnReturn(false);
         poolConfig.setTestWhileIdle(true);
         poolConfig.setMinEvictableIdleTimeMillis(Duration.ofSeconds(60).toMillis());
         poolConfig.setTimeBetweenEvictionRunsMillis(Duration.ofSeconds(30).toMillis());
@@ -213,152 +615,582 @@ public class Velobbbity {
             return;
         }
         this.ajQueueAPI = AjQueueAPI.getInstance();
+        this.queueManager = ajQueueAPI.getQueueManager();
+        this.platformMethods = ajQueueAPI.getPlatformMethods();
         this.ajSubscriptionsRegistration();
+        this.start();
+    }
+
+    //everything that runs once the config is loaded and AjQueue is wired up, also how the plugin is run headless
+    public void start() {
+        //give the proxy's servers the low ids before players bring in anything else
+        server.getAllServers().forEach(registeredServer -> ServerNames.id(registeredServer.getServerInfo().getName()));
+        this.registerMetrics();
+        if (metricsHttpServer != null)
+            metricsHttpServer.start();
+        server.getCommandManager().register(server.getCommandManager().metaBuilder("velobbity").plugin(this).build(), new VelobbityCommand(this));
+        this.refreshLobbyOccupancy();
+        server.getScheduler()
+                .buildTask(this, this::refreshLobbyOccupancy)
+                .delay(occupancySnapshotMillis, TimeUnit.MILLISECONDS)
+                .repeat(occupancySnapshotMillis, TimeUnit.MILLISECONDS)
+                .schedule();
+        if (clusterOccupancy != null) {
+            server.getScheduler()
+                    .buildTask(this, () -> clusterOccupancy.sync(localLobbyLoad()))
+                    .repeat(clusterSyncMillis, TimeUnit.MILLISECONDS)
+                    .schedule();
+        }
+        if (healthProbing) {
+            server.getScheduler()
+                    .buildTask(this, () -> lobbyHealth.probeAll(lobbyDefinitions.servers()))
+                    .repeat(healthProbeMillis, TimeUnit.MILLISECONDS)
+                    .schedule();
+        }
+        server.getScheduler()
+                .buildTask(this, () -> admissionController.drain(this::admitWaiting))
+                .repeat(50, TimeUnit.MILLISECONDS)
+                .schedule();
+        server.getScheduler()
+                .buildTask(this, this::evictIdleSessions)
+                .repeat(sessionSweepMillis, TimeUnit.MILLISECONDS)
+                .schedule();
+        server.getScheduler()
+                .buildTask(this, redirectRetryScheduler::tick)
+                .repeat(redirectRetryScheduler.tickMillis, TimeUnit.MILLISECONDS)
+                .schedule();
+        server.getScheduler()
+                .buildTask(this, statusRecheckScheduler::tick)
+                .repeat(statusRecheckScheduler.tickMillis, TimeUnit.MILLISECONDS)
+                .schedule();
+    }
+
+    //drop sessions created for players that never logged out through us, e.g. safe messages for other proxies' players
+    private void evictIdleSessions() {
+        int evicted = sessions.evictIdle(sessionIdleMillis, uuid -> server.getPlayer(uuid).isPresent(), this::forgetSession);
+        if (evicted > 0)
+            logger.atLevel(Level.DEBUG).log("Evicted " + evicted + " idle player sessions.");
+    }
+
+    //expose the counters the components already keep next to the ones recorded here
+    private void registerMetrics() {
+        metrics.gauge("velobbity_players", "Players known to this proxy", sessions::size);
+        metrics.gauge("velobbity_session_store_bytes", "Estimated heap used by player sessions", sessions::footprintBytes);
+        metrics.gauge("velobbity_session_store_slots", "Slots allocated in the player session tables", sessions::capacity);
+        metrics.counter("velobbity_sessions_evicted_total", "Idle sessions of players no longer on the proxy that were dropped", sessions::evictions);
+        metrics.gauge("velobbity_admission_waiting", "Players waiting for a lobby connect slot", admissionController::waitingCount);
+        metrics.gauge("velobbity_redirect_retries_pending", "Lobby redirects waiting for a retry", redirectRetryScheduler::pendingCount);
+        metrics.gauge("velobbity_status_rechecks_pending", "Queue attempts from a lobby held back until the player's data sync is done", statusRecheckScheduler::pendingCount);
+        metrics.gauge("velobbity_rebalance_moves_pending", "Planned moves off drained or failed lobbies not made yet", lobbyRebalancer::pendingMoves);
+        metrics.gauge("velobbity_lobby_circuits_open", "Lobbies taking no players because their pings keep failing", lobbyHealth::openCount);
+        if (jedisPool == null)
+            return;
+        metrics.register("velobbity_redis_status_get_seconds", "Time taken by one batched status MGET", playerStatusLookup.roundTripLatency);
+        metrics.counter("velobbity_redis_status_lookups_total", "Player status lookups requested", playerStatusLookup.lookups::sum);
+        metrics.counter("velobbity_redis_status_round_trips_total", "Batched status MGETs sent to redis", playerStatusLookup.roundTrips::sum);
+        metrics.counter("velobbity_redis_status_lookups_rejected_total", "Player status lookups failed because too many were waiting", playerStatusLookup.rejected::sum);
+        metrics.register("velobbity_redis_publish_seconds", "Time taken by one status update PUBLISH", statusPublisher.publishLatency);
+        metrics.counter("velobbity_status_cache_hits_total", "Player statuses answered from the local cache", playerStatusCache.hits::sum);
+        metrics.counter("velobbity_status_cache_misses_total", "Player statuses not in the local cache", playerStatusCache.misses::sum);
+        metrics.counter("velobbity_status_messages_received_total", "Status messages received from redis", statusSubscription.received::sum);
+        metrics.counter("velobbity_status_messages_dropped_total", "Status messages dropped because the worker queue was full", statusSubscription.dropped::sum);
+        metrics.counter("velobbity_status_subscription_reconnects_total", "Times the status subscription reconnected", statusSubscription.reconnects::get);
+        if (prepareTransferPublisher != null) {
+            metrics.counter("velobbity_prepare_transfer_published_total", "Prepare transfer notices published to origin servers", prepareTransferPublisher.published::sum);
+            metrics.counter("velobbity_prepare_transfer_dropped_total", "Prepare transfer notices dropped because redis was unreachable or the queue was full", prepareTransferPublisher.dropped::sum);
+            metrics.register("velobbity_prepare_transfer_publish_seconds", "Time taken to publish a batch of prepare transfer notices", prepareTransferPublisher.publishLatency);
+        }
+        metrics.gauge("velobbity_redis_pool_active", "Redis connections in use", jedisPool::getNumActive);
+        metrics.gauge("velobbity_redis_pool_idle", "Idle redis connections in the pool", jedisPool::getNumIdle);
+        metrics.gauge("velobbity_redis_pool_waiters", "Threads waiting for a redis connection", jedisPool::getNumWaiters);
+    }
+
+    @Subscribe
+    public void onProxyShutdown(ProxyShutdownEvent event) {
+        if (metricsHttpServer != null)
+            metricsHttpServer.stop();
+        if (configWatcher != null)
+            configWatcher.stop();
+        if (config != null)
+            config.flush();
+        if (statusSubscription != null)
+            statusSubscription.stop();
+        if (statusPublisher != null)
+            statusPublisher.shutdown();
+        if (prepareTransferPublisher != null)
+            prepareTransferPublisher.shutdown();
+        if (transferIntentStore != null)
+            transferIntentStore.shutdown();
+        if (playerStatusLookup != null)
+            playerStatusLookup.shutdown();
+        if (jedisPool != null)
+            jedisPool.close();
     }
 
     @Subscribe
     public void onLogin(PostLoginEvent event)
     {
         UUID uuid = event.getPlayer().getUniqueId();
-        String username = event.getPlayer().getUsername();
-        if (cachedUUIDMappedData.containsKey(uuid))
+        VelobbityPlayer player = getOrCreatePlayer(uuid, event.getPlayer().getUsername());
+        //pick up a transfer this player started before a proxy restart or on another proxy
+        if (transferIntentStore != null)
+            readTransferIntent(uuid, player);
+    }
+
+    private void readTransferIntent(UUID uuid, VelobbityPlayer player) {
+        transferIntentStore.read(uuid).whenComplete((intent, throwable) -> {
+            if (throwable != null)
+                logger.atLevel(Level.WARN).log("Could not read transfer intent for " + uuid + ": " + throwable.getMessage());
+            else if (intent != null)
+                restoreTransferIntent(uuid, player, intent);
+        });
+    }
+
+    private void restoreTransferIntent(UUID uuid, VelobbityPlayer player, TransferIntentStore.TransferIntent intent) {
+        //something already started a transfer on this proxy, that one wins
+        if (player.getDesiredServerId() != ServerNames.NONE || !player.transition(TransferState.AT_ORIGIN, TransferState.TO_LOBBY))
             return;
-        VelobbityPlayer player = new VelobbityPlayer(uuid, username);
-        this.cachedUUIDMappedData.put(uuid, player);
+        player.setDesiredServer(intent.desiredServer);
+        logger.atLevel(Level.INFO).log("Restored transfer of " + uuid + " to " + intent.desiredServer + ".");
+        //already landed in a lobby before the intent came back
+        if (lobbyDefinitions.isLobby(player.getLastServerId()))
+            arrivedInLobby(player);
+    }
+
+    public VelobbityPlayer getOrCreatePlayer(UUID uuid, String username) {
+        return sessions.getOrCreate(uuid, username);
     }
 
     @Subscribe
     public void serverJoin(ServerConnectedEvent event)
     {
-        VelobbityPlayer player;
         UUID uuid = event.getPlayer().getUniqueId();
-        String username = event.getPlayer().getUsername();
-        player = !cachedUUIDMappedData.containsKey(uuid) ? new VelobbityPlayer(uuid, username) : cachedUUIDMappedData.get(uuid);
-        player.lastServer = event.getServer().getServerInfo().getName();
-        cachedUUIDMappedData.put(uuid, player);
-        //check if a players last server is a lobby server and if their desired server is not a lobby server
-        if (configuredLobbyServers.containsKey(player.lastServer) && !configuredLobbyServers.containsKey(player.desiredServer)) {
-            //if so, redirect them to their desired server
-            AdaptedPlayer adaptedPlayer = AjQueueAPI.getInstance().getPlatformMethods().getPlayer(event.getPlayer().getUniqueId());
-            //schedule a 5 second delay to allow data syncs to complete
-            server.getScheduler()
-                    .buildTask(this, () -> {
-                        AjQueueAPI.getInstance().getQueueManager().addToQueue(adaptedPlayer, player.desiredServer);
-                    })
-                    .delay(5, TimeUnit.SECONDS)
-                    .schedule();
+        VelobbityPlayer player = getOrCreatePlayer(uuid, event.getPlayer().getUsername());
+        player.setLastServer(event.getServer().getServerInfo().getName());
+        LobbyDefinitions lobbies = this.lobbyDefinitions;
+        if (!lobbies.isLobby(player.getLastServerId())) {
+            //arrived somewhere outside the lobbies, either the end of a transfer or a move we did not make
+            TransferState previous = player.getTransferState();
+            if (!player.transition(TransferState.TRANSFERRING, TransferState.DONE))
+                player.resetTransfer();
+            if (transferIntentStore != null && previous != TransferState.AT_ORIGIN && previous != TransferState.DONE)
+                transferIntentStore.clear(uuid);
+            return;
         }
+        if (player.getDesiredServerId() == ServerNames.NONE) {
+            //in a lobby without a transfer known here, the login read may have missed one started on another proxy
+            if (transferIntentStore != null && player.getTransferState() == TransferState.AT_ORIGIN)
+                readTransferIntent(uuid, player);
+            return;
+        }
+        //check if their desired server is not a lobby server
+        if (lobbies.isLobby(player.getDesiredServerId()))
+            return;
+        arrivedInLobby(player);
+    }
+
+    @Subscribe
+    public void onKickedFromServer(KickedFromServerEvent event)
+    {
+        //a kick from inside a lobby is the proxy's business, only a connect we started that never landed is ours
+        if (!event.kickedDuringServerConnect() || !lobbyDefinitions.isLobby(event.getServer().getServerInfo().getName()))
+            return;
+        UUID uuid = event.getPlayer().getUniqueId();
+        VelobbityPlayer player = sessions.get(uuid);
+        if (player == null || !isHeadingToLobby(player))
+            return;
+        //they stay where they were, try another lobby once the failed one has had a moment to drop out of the snapshot
+        metrics.redirectRetries.increment();
+        redirectRetryScheduler.schedule(uuid, player.getDesiredServer());
+    }
+
+    //sent to a lobby but not in one yet, a safe message may already have come in on the way
+    private boolean isHeadingToLobby(VelobbityPlayer player) {
+        TransferState state = player.getTransferState();
+        return state == TransferState.TO_LOBBY || (state == TransferState.SAFE && !lobbyDefinitions.isLobby(player.getLastServerId()));
+    }
+
+    private void arrivedInLobby(VelobbityPlayer player) {
+        player.lobbyArrivalMillis = System.currentTimeMillis();
+        //only the first arrival of a transfer starts the handoff, a safe message may already have arrived
+        if (!player.transition(TransferState.TO_LOBBY, TransferState.SYNCING) && player.getTransferState() != TransferState.SAFE)
+            return;
+        //if so, redirect them to their desired server once their data sync completes
+        handoffCoordinator.arrived(player);
+    }
+
+    //queue a player for their desired server, exactly once per transfer
+    public boolean handOff(VelobbityPlayer player) {
+        AdaptedPlayer adaptedPlayer = platformMethods.getPlayer(player.getUuid());
+        if (adaptedPlayer == null)
+            return false;
+        if (!player.transition(TransferState.SYNCING, TransferState.TRANSFERRING) && !player.transition(TransferState.SAFE, TransferState.TRANSFERRING))
+            return false;
+        //safe or timed out, the handoff has decided, so the status gate in the lobby must not hold them back
+        statusCleared.put(adaptedPlayer.getUniqueId(), System.currentTimeMillis() + STATUS_CLEARED_MILLIS);
+        queueManager.addToQueue(adaptedPlayer, player.getDesiredServer());
+        if (player.lobbyArrivalMillis > 0)
+            metrics.lobbyDwell.record(TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis() - player.lobbyArrivalMillis));
+        return true;
     }
 
     @Subscribe
     public void proxyLogout(DisconnectEvent event)
     {
         UUID uuid = event.getPlayer().getUniqueId();
-        cachedUUIDMappedData.remove(uuid);
+        forgetSession(uuid, sessions.remove(uuid));
+    }
+
+    //everything else kept per player, for a logout or an evicted session
+    private void forgetSession(UUID uuid, VelobbityPlayer player) {
+        statusCleared.remove(uuid);
+        if (player != null)
+            handoffCoordinator.forget(player);
+        redirectRetryScheduler.cancel(uuid);
+        statusRecheckScheduler.cancel(uuid);
+        admissionController.cancel(uuid);
+        if (playerStatusCache != null)
+            playerStatusCache.evict(uuid);
     }
 
     //handle ajqueue events
     public void ajSubscriptionsRegistration() {
-        AjQueueAPI.getInstance().listen(PreQueueEvent.class, event -> {
-            //check if the players server is a lobby server, if not, redirect them to a lobby server and cancel the event
-            VelobbityPlayer player = cachedUUIDMappedData.get(event.getPlayer().getUniqueId());
-            if (player == null) {
-                player = new VelobbityPlayer(event.getPlayer().getUniqueId(), event.getPlayer().getName());
-                cachedUUIDMappedData.put(event.getPlayer().getUniqueId(), player);
+        ajQueueAPI.listen(PreQueueEvent.class, this::handlePreQueue);
+    }
+
+    public void handlePreQueue(PreQueueEvent event) {
+        long start = System.nanoTime();
+        try {
+            onPreQueue(event);
+        } finally {
+            metrics.preQueueHandler.recordSince(start);
+        }
+    }
+
+    private void onPreQueue(PreQueueEvent event) {
+        //check if the players server is a lobby server, if not, redirect them to a lobby server and cancel the event
+        VelobbityPlayer player = getOrCreatePlayer(event.getPlayer().getUniqueId(), event.getPlayer().getName());
+        if (!lobbyDefinitions.isLobby(player.getLastServerId())) {
+            AdaptedPlayer adaptedPlayer = event.getPlayer();
+            String target = event.getTarget().getName();
+            if (mayTransferDirectly(player, adaptedPlayer.getServerName(), target)) {
+                UUID uuid = adaptedPlayer.getUniqueId();
+                //found safe by a lookup for this attempt, or reported safe by the backend recently, skip the lobby
+                if (takeStatusCleared(uuid) || PlayerStatus.fromString(playerStatusCache.getFresh(uuid, directTransferFreshMillis)) == PlayerStatus.SAFE) {
+                    metrics.lobbyHopsAvoided.increment();
+                    return;
+                }
+                event.setCancelled(true);
+                lookupStoredStatus(uuid).whenComplete((value, throwable) -> {
+                    //a safe status of unknown age may predate the player's last changes, that goes through a lobby
+                    if (throwable == null && PlayerStatus.fromString(PlayerStatus.statusOf(value)) == PlayerStatus.SAFE
+                            && PlayerStatusCache.isFresh(PlayerStatus.reportedAtOf(value), System.currentTimeMillis(), directTransferFreshMillis)) {
+                        statusCleared.put(uuid, System.currentTimeMillis() + STATUS_CLEARED_MILLIS);
+                        queueManager.addToQueue(adaptedPlayer, target);
+                    } else {
+                        routeThroughLobby(adaptedPlayer, player, target);
+                    }
+                });
+                return;
             }
-            if (!configuredLobbyServers.containsKey(player.lastServer)) {
+            event.setCancelled(true);
+            routeThroughLobby(adaptedPlayer, player, target);
+        } else {
+            //delay queue until safe
+            if (jedisPool != null) {
+                UUID uuid = event.getPlayer().getUniqueId();
+                //status was already checked for this attempt, let the queue continue
+                if (takeStatusCleared(uuid))
+                    return;
+                //known locally, decide right away
+                String cached = playerStatusCache.get(uuid);
+                if (cached != null) {
+                    if (!isStatusClear(cached)) {
+                        event.setCancelled(true);
+                        event.getPlayer().sendActionBar(Component.text("Waiting for your data to sync...").style(Style.style(TextColor.color(0xFFFF00))));
+                        statusRecheckScheduler.schedule(uuid, event.getTarget().getName());
+                    }
+                    return;
+                }
+                //defer the decision until the lookup completes instead of waiting on redis here
                 event.setCancelled(true);
-                //find first available server (that is also configured as a lobby server)
-                QueueServer queueServer = getAndSendAvailableLobbyServer(event.getPlayer(), player, event.getTarget().getName());
-                if (queueServer != null) {
-                    event.getPlayer().sendActionBar(Component.text("Redirecting to lobby server...").style(Style.style(TextColor.color(0x00FF00))));
-                    // if exists, redirect player and inform them why.
-                    AdaptedServer adaptedServer = ajQueueAPI.getPlatformMethods().getServer(queueServer.getName());
-                    event.getPlayer().connect(adaptedServer);
-                } else //if no available server exists, send below message to player
-                    event.getPlayer().sendActionBar(Component.text("No available lobby servers. Please try again later.").style(Style.style(TextColor.color(0xFF0000))));
-            } else {
-                //delay queue until safe
-                if (jedisPool != null) {
-                    String status = receivePlayerUpdateStatus(event.getPlayer().getUniqueId());
-                    if (status == null || status.isEmpty() || status.isBlank()) {
+                AdaptedPlayer adaptedPlayer = event.getPlayer();
+                String target = event.getTarget().getName();
+                lookupPlayerUpdateStatus(uuid).whenComplete((status, throwable) -> {
+                    if (throwable != null) {
+                        //fail open, a redis hiccup should not keep players out of the queue
+                        if (throwable instanceof TimeoutException)
+                            logger.atLevel(Level.WARN).log("Status lookup for " + uuid + " timed out, continuing queue.");
+                        else
+                            logger.atLevel(Level.WARN).log("Status lookup for " + uuid + " failed: " + throwable.getMessage());
+                    } else if (!isStatusClear(status)) {
+                        //still syncing, checked again until it is done, in case the safe message never reaches us
+                        adaptedPlayer.sendActionBar(Component.text("Waiting for your data to sync...").style(Style.style(TextColor.color(0xFFFF00))));
+                        statusRecheckScheduler.schedule(uuid, target);
                         return;
                     }
-                } else {
-                    //schedule for 2 seconds to try again
-                    VelobbityPlayer finalPlayer = player;
-                    server.getScheduler()
-                            .buildTask(this, () -> {
-                                ajQueueAPI.getQueueManager().addToQueue(event.getPlayer(), finalPlayer.desiredServer);
-                            })
-                            .delay(2, TimeUnit.SECONDS)
-                            .schedule();
-                }
+                    statusCleared.put(uuid, System.currentTimeMillis() + STATUS_CLEARED_MILLIS);
+                    queueManager.addToQueue(adaptedPlayer, target);
+                });
+            } else if (player.getTransferState() == TransferState.SYNCING) {
+                //no way to check their status, the handoff timeout will move them along
+                event.setCancelled(true);
             }
-        });
+        }
+    }
+
+    //done once the player is queued with a pass, has left the lobby, or is gone
+    private boolean recheckStatus(UUID uuid, String target) {
+        AdaptedPlayer adaptedPlayer = platformMethods.getPlayer(uuid);
+        VelobbityPlayer player = sessions.get(uuid);
+        if (adaptedPlayer == null || player == null || !lobbyDefinitions.isLobby(player.getLastServerId()))
+            return true;
+        String cached = playerStatusCache.get(uuid);
+        if (cached == null || !isStatusClear(cached)) {
+            //the safe message may have been missed, ask redis and decide on the next check
+            lookupPlayerUpdateStatus(uuid);
+            return false;
+        }
+        statusCleared.put(uuid, System.currentTimeMillis() + STATUS_CLEARED_MILLIS);
+        queueManager.addToQueue(adaptedPlayer, target);
+        return true;
+    }
+
+    //fail open, as a failed lookup does, rather than keep a player out of the queue for good
+    private void giveUpStatusRecheck(UUID uuid, String target) {
+        logger.atLevel(Level.WARN).log("Status of " + uuid + " still not safe after repeated checks, continuing queue.");
+        AdaptedPlayer adaptedPlayer = platformMethods.getPlayer(uuid);
+        VelobbityPlayer player = sessions.get(uuid);
+        if (adaptedPlayer == null || player == null || !lobbyDefinitions.isLobby(player.getLastServerId()))
+            return;
+        statusCleared.put(uuid, System.currentTimeMillis() + STATUS_CLEARED_MILLIS);
+        queueManager.addToQueue(adaptedPlayer, target);
+    }
+
+    //a pass is used once, and only while it is recent
+    private boolean takeStatusCleared(UUID uuid) {
+        Long expiresAt = statusCleared.remove(uuid);
+        return expiresAt != null && expiresAt >= System.currentTimeMillis();
+    }
+
+    //only a player with no transfer under way, on a route the rules allow, and only with redis to ask
+    private boolean mayTransferDirectly(VelobbityPlayer player, String origin, String target) {
+        if (jedisPool == null || directTransferRules.isEmpty())
+            return false;
+        TransferState state = player.getTransferState();
+        return (state == TransferState.AT_ORIGIN || state == TransferState.DONE) && directTransferRules.allows(origin, target);
+    }
+
+    private void routeThroughLobby(AdaptedPlayer adaptedPlayer, VelobbityPlayer player, String target) {
+        //a transfer is already under way for this player, a repeated queue attempt changes nothing
+        if (!player.beginTransfer(TRANSFER_STALE_MILLIS))
+            return;
+        //let the origin start saving while the player hops through a lobby, rather than once they are in it
+        if (prepareTransferPublisher != null)
+            prepareTransferPublisher.publish(new PrepareTransferNotice(adaptedPlayer.getUniqueId(), adaptedPlayer.getServerName(), target, System.currentTimeMillis()));
+        //find the best available server (that is also configured as a lobby server)
+        LobbyPlacement placement = sendToLobby(adaptedPlayer, player, target, false);
+        if (placement == LobbyPlacement.PLACED) {
+            // if exists, inform them why.
+            adaptedPlayer.sendActionBar(Component.text("Redirecting to lobby server...").style(Style.style(TextColor.color(0x00FF00))));
+        } else if (placement == LobbyPlacement.WAITING) {
+            adaptedPlayer.sendActionBar(Component.text("Waiting for a lobby slot...").style(Style.style(TextColor.color(0xFFFF00))));
+        } else { //if no available server exists, send below message to player
+            if (player.transition(TransferState.TO_LOBBY, TransferState.AT_ORIGIN) && transferIntentStore != null)
+                transferIntentStore.clear(adaptedPlayer.getUniqueId());
+            adaptedPlayer.sendActionBar(Component.text("No available lobby servers. Please try again later.").style(Style.style(TextColor.color(0xFF0000))));
+        }
     }
 
     public void redirect(UUID uuid)
     {
-        VelobbityPlayer player = cachedUUIDMappedData.get(uuid);
-        if (player == null) {
-            player = new VelobbityPlayer(uuid, "");
-            cachedUUIDMappedData.put(uuid, player);
+        VelobbityPlayer player = getOrCreatePlayer(uuid, "");
+        //already in a lobby, their sync is done so hand them off
+        if (player.transition(TransferState.SYNCING, TransferState.SAFE)) {
+            handoffCoordinator.signalSafe(player);
+            return;
         }
-        AdaptedPlayer adaptedPlayer = AjQueueAPI.getInstance().getPlatformMethods().getPlayer(uuid);
-        redirectPlayerToLobbyServer(adaptedPlayer, player, player.desiredServer);
+        //still on the way to a lobby, the handoff starts as soon as they arrive
+        if (player.transition(TransferState.TO_LOBBY, TransferState.SAFE))
+            return;
+        AdaptedPlayer adaptedPlayer = platformMethods.getPlayer(uuid);
+        //a duplicate safe message, one for a player who already arrived, or a player that left, nothing to do
+        if (adaptedPlayer == null || !player.transition(TransferState.AT_ORIGIN, TransferState.TO_LOBBY))
+            return;
+        redirectPlayerToLobbyServer(adaptedPlayer, player, player.getDesiredServer());
     }
 
     public boolean redirectPlayerToLobbyServer(AdaptedPlayer player, VelobbityPlayer velobbityPlayer, String desiredServer) {
-        boolean success = false;
-        QueueServer queueServer = getAndSendAvailableLobbyServer(player, velobbityPlayer, desiredServer);
+        LobbyPlacement placement = sendToLobby(player, velobbityPlayer, desiredServer, false);
+        if (placement == LobbyPlacement.FULL) {
+            //wait in the shared retry queue until a lobby frees up
+            metrics.redirectRetries.increment();
+            redirectRetryScheduler.schedule(player.getUniqueId(), desiredServer);
+        }
+        return placement == LobbyPlacement.PLACED;
+    }
+
+    /**
+     * Connects a player to the best lobby that has room and is admitting connects.
+     * @param fromWaitList whether the player is being admitted from the wait list, everyone else lines up behind it
+     */
+    public LobbyPlacement sendToLobby(AdaptedPlayer player, VelobbityPlayer velobbityPlayer, String desiredServer, boolean fromWaitList) {
+        if (!fromWaitList && admissionController.waitingCount() > 0) {
+            admissionController.enqueue(player.getUniqueId(), desiredServer);
+            return LobbyPlacement.WAITING;
+        }
+        boolean[] throttled = new boolean[1];
+        QueueServer queueServer = getAndSendAvailableLobbyServer(player, velobbityPlayer, desiredServer, throttled);
         if (queueServer != null) {
-            success = true;
-            AdaptedServer adaptedServer = ajQueueAPI.getPlatformMethods().getServer(queueServer.getName());
+            AdaptedServer adaptedServer = platformMethods.getServer(queueServer.getName());
             player.connect(adaptedServer);
-        } else {
-            //schedule for 2 seconds to try again
-            server.getScheduler()
-                    .buildTask(this, () -> {
-                        redirectPlayerToLobbyServer(player, velobbityPlayer, desiredServer);
-                    })
-                    .delay(2, TimeUnit.SECONDS)
-                    .schedule();
+            return LobbyPlacement.PLACED;
         }
-        return success;
+        if (!throttled[0])
+            return LobbyPlacement.FULL;
+        if (!fromWaitList)
+            admissionController.enqueue(player.getUniqueId(), desiredServer);
+        return LobbyPlacement.WAITING;
     }
 
-    public QueueServer getAndSendAvailableLobbyServer(AdaptedPlayer player, VelobbityPlayer velobbityPlayer, String desiredServer) {
-        QueueServer availableServer = null;
-        ImmutableList<QueueServer> servers = ajQueueAPI.getQueueManager().getServers();
-        for (int i = 0, serversSize = servers.size(); i < serversSize; i++) {
-            QueueServer queueServer = servers.get(i);
-            if (configuredLobbyServers.containsKey(queueServer.getName())) {
-                //check if server is full
-                if (queueServer.isOnline() && queueServer.isJoinable(player)) {
-                    //adjust velobbity player data
-                    velobbityPlayer.lastServer = player.getServerName();
-                    velobbityPlayer.desiredServer = desiredServer;
-                    this.cachedUUIDMappedData.put(player.getUniqueId(), velobbityPlayer);
-                    availableServer = queueServer;
+    //a waiting player leaves the line once placed, gone, moved on by something else, or out of lobbies with room
+    private boolean admitWaiting(UUID uuid, String desiredServer) {
+        VelobbityPlayer velobbityPlayer = sessions.get(uuid);
+        AdaptedPlayer player = platformMethods.getPlayer(uuid);
+        if (velobbityPlayer == null || player == null || velobbityPlayer.getTransferState() != TransferState.TO_LOBBY)
+            return true;
+        LobbyPlacement placement = sendToLobby(player, velobbityPlayer, desiredServer, true);
+        if (placement == LobbyPlacement.FULL) {
+            metrics.redirectRetries.increment();
+            redirectRetryScheduler.schedule(uuid, desiredServer);
+        }
+        return placement != LobbyPlacement.WAITING;
+    }
+
+    //a retry is finished once the player is placed, has left, or has been moved on by something else
+    private boolean retryRedirect(UUID uuid, String desiredServer) {
+        VelobbityPlayer velobbityPlayer = sessions.get(uuid);
+        AdaptedPlayer player = platformMethods.getPlayer(uuid);
+        if (velobbityPlayer == null || player == null || !isHeadingToLobby(velobbityPlayer))
+            return true;
+        //lined up for admission counts as done, the wait list takes it from here
+        return sendToLobby(player, velobbityPlayer, desiredServer, false) != LobbyPlacement.FULL;
+    }
+
+    private void giveUpRedirect(UUID uuid, String desiredServer) {
+        metrics.redirectGiveUps.increment();
+        VelobbityPlayer velobbityPlayer = sessions.get(uuid);
+        //the transfer is abandoned, another proxy must not pick it up again
+        if (velobbityPlayer != null && (velobbityPlayer.transition(TransferState.TO_LOBBY, TransferState.AT_ORIGIN) || velobbityPlayer.transition(TransferState.SAFE, TransferState.AT_ORIGIN)) && transferIntentStore != null)
+            transferIntentStore.clear(uuid);
+        AdaptedPlayer player = platformMethods.getPlayer(uuid);
+        if (player != null)
+            player.sendActionBar(Component.text("No available lobby servers. Please try again later.").style(Style.style(TextColor.color(0xFF0000))));
+    }
+
+    //rebuild the lobby occupancy index from the proxy's view of the lobby servers, plus other proxies' if shared
+    public void refreshLobbyOccupancy() {
+        QueueManager queueManager = this.queueManager;
+        ClusterOccupancy cluster = this.clusterOccupancy;
+        lobbySelector.refresh(lobbyDefinitions.servers(),
+                serverName -> localPlayerCount(serverName) + (cluster != null ? cluster.remoteLoad(serverName) : 0),
+                serverName -> {
+                    QueueServer queueServer = queueManager.findServer(serverName);
+                    return queueServer != null && queueServer.isOnline() && lobbyHealth.isAvailable(serverName)
+                            && !drainingLobbies.contains(serverName);
+                });
+        //capacity freed up, place everyone waiting in one pass
+        if (redirectRetryScheduler.pendingCount() > 0) {
+            for (LobbyOccupancy lobby : lobbySelector.getLobbies()) {
+                if (lobby.hasCapacity()) {
+                    redirectRetryScheduler.drain();
                     break;
                 }
             }
         }
-        return availableServer;
-    }
-
-    public void subscribeToPlayerStatusUpdates() {
-        new Thread(() -> {
-            try (Jedis jedis = jedisPool.getResource()) {
-                logger.info("Subscribing to player status updates.");
-                //state of jedis
-                logger.info("JedisPool state: " + (jedisPool.isClosed() ? "closed" : "open"));
-                logger.info("Jedis pool active: " + jedisPool.getNumActive());
-                jedis.subscribe(new PlayerStatusSubscriber(), "playerStatusUpdates");
-            } catch (Exception e) {
-                logger.atLevel(Level.ERROR).log(e.getMessage());
-            }
-        }).start();
+    }
+
+    private void evacuateFailedLobby(String serverName) {
+        RebalancePlanner.Plan plan = lobbyRebalancer.evacuate(serverName);
+        if (!plan.assignments.isEmpty() || !plan.unplaced.isEmpty())
+            logger.atLevel(Level.WARN).log("Lobby " + serverName + " is failing health checks, moving " + plan.assignments.size() + " players off it, "
+                    + plan.unplaced.size() + " have nowhere to go.");
+    }
+
+    public synchronized void setDraining(String serverName, boolean draining) {
+        this.drainingLobbies = draining ? drainingLobbies.with(serverName) : drainingLobbies.without(serverName);
+        //take the lobby out of (or back into) selection now rather than at the next snapshot
+        if (queueManager != null)
+            refreshLobbyOccupancy();
+    }
+
+    public int localPlayerCount(String serverName) {
+        return server.getServer(serverName).map(registeredServer -> registeredServer.getPlayersConnected().size()).orElse(0);
+    }
+
+    //players this proxy has in each lobby, including those placed since the last snapshot
+    public Map<String, Integer> localLobbyLoad() {
+        Map<String, Integer> load = new HashMap<>();
+        for (LobbyServer lobbyServer : lobbyDefinitions.servers())
+            load.put(lobbyServer.serverName, localPlayerCount(lobbyServer.serverName));
+        for (LobbyOccupancy lobby : lobbySelector.getLobbies())
+            load.computeIfPresent(lobby.serverName, (serverName, players) -> players + lobby.reserved.get());
+        return load;
+    }
+
+    public QueueServer getAndSendAvailableLobbyServer(AdaptedPlayer player, VelobbityPlayer velobbityPlayer, String desiredServer) {
+        return getAndSendAvailableLobbyServer(player, velobbityPlayer, desiredServer, new boolean[1]);
+    }
+
+    /**
+     * @param throttled set to true if a lobby with room was passed over because it is out of admission tokens
+     */
+    public QueueServer getAndSendAvailableLobbyServer(AdaptedPlayer player, VelobbityPlayer velobbityPlayer, String desiredServer, boolean[] throttled) {
+        QueueManager queueManager = this.queueManager;
+        LobbyOccupancy lobby = lobbySelector.select(player.getUniqueId(), serverName -> {
+            QueueServer queueServer = queueManager.findServer(serverName);
+            if (queueServer == null || !queueServer.isOnline() || !queueServer.isJoinable(player))
+                return false;
+            //a lobby recovering from failures only takes a few trial players
+            if (!lobbyHealth.tryAdmit(serverName))
+                return false;
+            if (admissionController.tryAcquire(serverName))
+                return true;
+            //not placed after all, the trial permit goes to the next player
+            lobbyHealth.releaseTrial(serverName);
+            throttled[0] = true;
+            return false;
+        });
+        if (lobby == null)
+            return null;
+        metrics.placements.increment(lobby.serverName);
+        //adjust velobbity player data
+        velobbityPlayer.setLastServer(player.getServerName());
+        velobbityPlayer.setDesiredServer(desiredServer);
+        if (transferIntentStore != null)
+            transferIntentStore.write(player.getUniqueId(), desiredServer, player.getServerName());
+        return queueManager.findServer(lobby.serverName);
+    }
+
+    public void subscribeToPlayerStatusUpdates(int database) {
+        logger.info("JedisPool state: " + (jedisPool.isClosed() ? "closed" : "open"));
+        this.statusSubscription = new StatusSubscriptionSupervisor(jedisPool, "playerStatusUpdates", logger, 2, 4096);
+        if (keyspaceNotificationsEnabled())
+            this.statusSubscription.watchKeyspace(database);
+        else
+            logger.atLevel(Level.WARN).log("Redis keyspace notifications are off (notify-keyspace-events needs K, g, $ and x), cached player statuses will only expire by age.");
+        this.statusSubscription.start();
+    }
+
+    private boolean keyspaceNotificationsEnabled() {
+        try (Jedis jedis = jedisPool.getResource()) {
+            String events = jedis.configGet("notify-keyspace-events").getOrDefault("notify-keyspace-events", "");
+            boolean allKeyEvents = events.contains("A");
+            return events.contains("K") && (allKeyEvents || (events.contains("g") && events.contains("$") && events.contains("x")));
+        } catch (Exception e) {
+            //CONFIG may be disabled on managed redis
+            logger.atLevel(Level.WARN).log("Could not read redis notify-keyspace-events: " + e.getMessage());
+            return false;
+        }
     }
 }
@@ -0,0 +1,105 @@
+package io.github.adainish.velobbity.command;
+
+import com.velocitypowered.api.command.CommandSource;
+import com.velocitypowered.api.command.SimpleCommand;
+import io.github.adainish.velobbity.Velobbbity;
+import io.github.adainish.velobbity.lobby.LobbyHealth;
+import io.github.adainish.velobbity.lobby.RebalancePlanner;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.Style;
+import net.kyori.adventure.text.format.TextColor;
+
+import java.util.List;
+
+/**
+ * The /velobbity admin command, usable in-game with the velobbity.admin permission and from the console.
+ */
+public class VelobbityCommand implements SimpleCommand
+{
+    public static final String PERMISSION = "velobbity.admin";
+    private static final List<String> SUBCOMMANDS = List.of("metrics", "health", "drain", "undrain");
+
+    private final Velobbbity plugin;
+
+    public VelobbityCommand(Velobbbity plugin)
+    {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void execute(Invocation invocation)
+    {
+        CommandSource source = invocation.source();
+        String[] arguments = invocation.arguments();
+        if (arguments.length == 0) {
+            source.sendMessage(Component.text("Usage: /velobbity <" + String.join("|", SUBCOMMANDS) + ">").style(Style.style(TextColor.color(0xFFFF00))));
+            return;
+        }
+        switch (arguments[0].toLowerCase()) {
+            case "metrics" -> {
+                source.sendMessage(Component.text("Velobbity metrics").style(Style.style(TextColor.color(0x00FF00))));
+                plugin.metrics.summary().forEach(line -> source.sendMessage(Component.text(line)));
+            }
+            case "health" -> {
+                source.sendMessage(Component.text("Lobby health").style(Style.style(TextColor.color(0x00FF00))));
+                for (LobbyHealth health : plugin.lobbyHealth.getHealth()) {
+                    String latency = health.getLatencyMillis() < 0 ? "-" : String.format("%.1fms", health.getLatencyMillis());
+                    source.sendMessage(Component.text(health.serverName + ": " + health.getState() + ", ping " + latency + ", " + health.getConsecutiveFailures() + " failures"));
+                }
+            }
+            case "drain" -> {
+                String lobby = lobbyArgument(source, arguments);
+                if (lobby == null)
+                    return;
+                plugin.setDraining(lobby, true);
+                RebalancePlanner.Plan plan = plugin.lobbyRebalancer.evacuate(lobby);
+                source.sendMessage(Component.text("Draining " + lobby + ": moving " + plan.assignments.size() + " players in waves of " + plugin.lobbyRebalancer.waveSize
+                        + (plan.unplaced.isEmpty() ? "" : ", " + plan.unplaced.size() + " stay for lack of room")).style(Style.style(TextColor.color(0x00FF00))));
+            }
+            case "undrain" -> {
+                String lobby = lobbyArgument(source, arguments);
+                if (lobby == null)
+                    return;
+                plugin.lobbyRebalancer.cancel(lobby);
+                plugin.setDraining(lobby, false);
+                source.sendMessage(Component.text(lobby + " is taking players again").style(Style.style(TextColor.color(0x00FF00))));
+            }
+            default -> source.sendMessage(Component.text("Unknown subcommand: " + arguments[0]).style(Style.style(TextColor.color(0xFF0000))));
+        }
+    }
+
+    private String lobbyArgument(CommandSource source, String[] arguments)
+    {
+        if (arguments.length < 2) {
+            source.sendMessage(Component.text("Usage: /velobbity " + arguments[0].toLowerCase() + " <lobby>").style(Style.style(TextColor.color(0xFFFF00))));
+            return null;
+        }
+        if (!plugin.lobbyDefinitions.isLobby(arguments[1])) {
+            source.sendMessage(Component.text(arguments[1] + " is not a configured lobby").style(Style.style(TextColor.color(0xFF0000))));
+            return null;
+        }
+        return arguments[1];
+    }
+
+    @Override
+    public List<String> suggest(Invocation invocation)
+    {
+        String[] arguments = invocation.arguments();
+        if (arguments.length == 2 && (arguments[0].equalsIgnoreCase("drain") || arguments[0].equalsIgnoreCase("undrain"))) {
+            return plugin.lobbyDefinitions.servers().stream()
+                    .map(lobbyServer -> lobbyServer.serverName)
+                    .filter(serverName -> serverName.startsWith(arguments[1]))
+                    .toList();
+        }
+        if (arguments.length > 1)
+            return List.of();
+        String prefix = arguments.length == 0 ? "" : arguments[0].toLowerCase();
+        return SUBCOMMANDS.stream().filter(subcommand -> subcommand.startsWith(prefix)).toList();
+    }
+
+    @Override
+    public boolean hasPermission(Invocation invocation)
+    {
+        return invocation.source().hasPermission(PERMISSION);
+    }
+}
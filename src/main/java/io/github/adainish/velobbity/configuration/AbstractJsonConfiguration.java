@@ -5,14 +5,22 @@ import io.github.adainish.velobbity.Velobbbity;
 import org.slf4j.event.Level;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents a configuration file that is stored in JSON format.
@@ -21,10 +29,28 @@ import java.util.List;
  * This class is used to read and write to the configuration file.
  * This class is used to store the configuration file path.
  * This class is used to store the configuration file content.
+ * Changes are not written straight away: they mark the configuration dirty, and a single write-behind flush
+ * picks up every change made within {@link #FLUSH_DELAY_MILLIS}. Use {@link #batch(Runnable)} to group a set of
+ * changes into exactly one write, or {@link #flush()} to write right now.
+ * Files are replaced atomically, a crash mid-write leaves the previous version in place.
+ * Reads and writes lock the configuration, and elements handed out are copies, so a caller can read them
+ * while the flusher serializes or a reload swaps the configuration.
  * see {@link AbstractJsonConfiguration#loadConfig()}
  */
 public abstract class AbstractJsonConfiguration {
-    private Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    public static final long FLUSH_DELAY_MILLIS = 250;
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Velobbity-ConfigFlush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Gson gson = GSON.PRETTY_MAIN_GSON();
+    private boolean dirty;
+    private boolean flushScheduled;
+    private int batchDepth;
+    //held for a whole flush, so writes land on disk in the order they were serialized
+    private final Object writeLock = new Object();
     private final String pathString;
     private JsonObject config;
     private Path filePath;
@@ -63,21 +89,29 @@ public abstract class AbstractJsonConfiguration {
             Velobbbity.instance.getLogger().atLevel(Level.INFO).log("Configuration file found: " + file.getName());
         }
         this.filePath = Paths.get(this.pathString);
-        try (FileReader reader = new FileReader(filePath.toFile())) {
+        try (Reader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8)) {
             config = gson.fromJson(reader, JsonObject.class);
         } catch (IOException e) {
             config = new JsonObject();
         }
     }
 
-    public boolean hasKey(String key) {
+    //reads the file as it is on disk now, null if it is empty
+    private JsonObject readFile() throws IOException {
+        try (Reader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8)) {
+            return gson.fromJson(reader, JsonObject.class);
+        }
+    }
+
+    public synchronized boolean hasKey(String key) {
         if (config == null)
             return false;
         return config.has(key);
     }
 
-    public void remove(String key) {
+    public synchronized void remove(String key) {
         config.remove(key);
+        markDirty();
     }
 
     public Boolean getBoolean(String key) {
@@ -116,22 +150,22 @@ public abstract class AbstractJsonConfiguration {
         set(key, new JsonPrimitive(value));
     }
 
-    public JsonElement get(String key) {
-        return config.get(key);
+    public synchronized JsonElement get(String key) {
+        return copyOf(config.get(key));
     }
 
-    public <T> T getObject(String key, Class<T> classOfT) {
+    public synchronized <T> T getObject(String key, Class<T> classOfT) {
         return gson.fromJson(config.get(key), classOfT);
     }
 
-    public <T> List<T> getList(String key, Class<T> classOfT) {
+    public synchronized <T> List<T> getList(String key, Class<T> classOfT) {
         List<T> list = new ArrayList<>();
         JsonArray jsonArray = config.getAsJsonArray(key);
         jsonArray.forEach(jsonElement -> list.add(gson.fromJson(jsonElement, classOfT)));
         return list;
     }
 
-    public AbstractJsonConfiguration getSubConfig(String key) {
+    public synchronized AbstractJsonConfiguration getSubConfig(String key) {
         JsonObject subConfigJson = config.getAsJsonObject(key);
         if (subConfigJson == null) {
             subConfigJson = new JsonObject();
@@ -146,18 +180,22 @@ public abstract class AbstractJsonConfiguration {
             }
             @Override
             public void save() {
-                set(key, config);
-                AbstractJsonConfiguration.this.save();
+                AbstractJsonConfiguration.this.set(key, config);
+                AbstractJsonConfiguration.this.flush();
+            }
+            @Override
+            protected void markDirty() {
+                AbstractJsonConfiguration.this.set(key, config);
             }
         };
     }
 
-    public void set(String key, JsonElement value) {
+    public synchronized void set(String key, JsonElement value) {
         config.add(key, value);
-        save();
+        markDirty();
     }
 
-    public void setSubConfigElement(String key, String subKey, JsonElement value) {
+    public synchronized void setSubConfigElement(String key, String subKey, JsonElement value) {
         if (config == null) {
             config = new JsonObject();
         }
@@ -167,7 +205,7 @@ public abstract class AbstractJsonConfiguration {
             config.add(key, subConfig);
         }
         subConfig.add(subKey, value);
-        save();
+        markDirty();
     }
 
     public void setSubConfigElement(String key, String subKey, String value) {
@@ -186,12 +224,17 @@ public abstract class AbstractJsonConfiguration {
         setSubConfigElement(key, subKey, new JsonPrimitive(value));
     }
 
-    public JsonElement getSubConfigElement(String key, String subKey) {
+    public synchronized JsonElement getSubConfigElement(String key, String subKey) {
         if (this.config == null) {
             this.config = new JsonObject();
         }
         JsonObject subConfig = config.getAsJsonObject(key);
-        return subConfig != null ? subConfig.get(subKey) : null;
+        return subConfig != null ? copyOf(subConfig.get(subKey)) : null;
+    }
+
+    //primitives are immutable, objects and arrays could change under the caller
+    private static JsonElement copyOf(JsonElement element) {
+        return element != null && !element.isJsonPrimitive() ? element.deepCopy() : element;
     }
 
     public String getSubConfigString(String key, String subKey) {
@@ -214,17 +257,19 @@ public abstract class AbstractJsonConfiguration {
         return element != null ? element.getAsBoolean() : null;
     }
 
-    public void setSubConfig(String key, AbstractJsonConfiguration subConfig) {
+    public synchronized void setSubConfig(String key, AbstractJsonConfiguration subConfig) {
         config.add(key, subConfig.config);
+        markDirty();
     }
 
-    public <T> void setList(String key, List<T> list) {
+    public synchronized <T> void setList(String key, List<T> list) {
         JsonArray jsonArray = new JsonArray();
         list.forEach(item -> jsonArray.add(gson.toJsonTree(item)));
         config.add(key, jsonArray);
+        markDirty();
     }
 
-    public void addSubComment(String key, String subKey, String comment) {
+    public synchronized void addSubComment(String key, String subKey, String comment) {
         if (config == null) {
             config = new JsonObject();
         }
@@ -234,29 +279,133 @@ public abstract class AbstractJsonConfiguration {
             config.add(key, subConfig);
         }
         subConfig.addProperty(subKey + "_comment", comment);
-        save();
+        markDirty();
     }
 
-    public void addComment(String key, String comment) {
+    public synchronized void addComment(String key, String comment) {
         if (config == null) {
             config = new JsonObject();
         }
         config.addProperty(key + "_comment", comment);
-        save();
+        markDirty();
     }
 
+    /**
+     * Applies a group of changes and writes them out once, however many of them there are.
+     */
+    public void batch(Runnable changes) {
+        synchronized (this) {
+            batchDepth++;
+        }
+        try {
+            changes.run();
+        } finally {
+            synchronized (this) {
+                batchDepth--;
+                if (batchDepth == 0 && dirty)
+                    scheduleFlush();
+            }
+        }
+    }
+
+    //record a change, the write-behind flush picks it up together with any other change made meanwhile
+    protected synchronized void markDirty() {
+        dirty = true;
+        if (batchDepth == 0)
+            scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled)
+            return;
+        flushScheduled = true;
+        FLUSHER.schedule(this::flush, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes pending changes now, does nothing if there are none.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            String json;
+            synchronized (this) {
+                flushScheduled = false;
+                if (!dirty)
+                    return;
+                dirty = false;
+                json = gson.toJson(config);
+            }
+            try {
+                writeAtomically(json);
+            } catch (IOException | NullPointerException e) {
+                synchronized (this) {
+                    dirty = true;
+                }
+                Velobbbity.instance.getLogger().atLevel(Level.ERROR).log("Could not write configuration " + pathString + ": " + e.getMessage());
+            }
+        }
+    }
 
+    /**
+     * Writes the configuration now, regardless of pending changes.
+     */
     public void save() {
-        try (FileWriter writer = new FileWriter(filePath.toFile())) {
-            gson.toJson(config, writer);
-        } catch (IOException | NullPointerException e) {
-            Velobbbity.instance.getLogger().atLevel(Level.TRACE).log(e.getMessage());
+        synchronized (this) {
+            dirty = true;
+        }
+        flush();
+    }
+
+    //write to a temporary file next to the target, sync it to disk, then swap it in
+    private void writeAtomically(String json) throws IOException {
+        Path temp = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = StandardCharsets.UTF_8.encode(json);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, filePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, filePath, StandardCopyOption.REPLACE_EXISTING);
         }
     }
 
-    public void reload() {
+    /**
+     * Replaces the configuration with what is on disk. Pending changes are written first, so they are not lost
+     * to the reload, and a file that is empty or cannot be parsed, e.g. one caught halfway through an edit,
+     * leaves the current configuration in place. The write, read and swap happen under one lock, a change made
+     * meanwhile waits for the new configuration instead of being dropped by it.
+     * @return whether the configuration was replaced
+     */
+    public boolean reload() {
         Velobbbity.instance.getLogger().atLevel(Level.INFO).log("A request to reload configuration: " + filePath.toString() + " was made");
-        // Reload the configuration
-        loadConfig();
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (dirty) {
+                    try {
+                        writeAtomically(gson.toJson(config));
+                    } catch (IOException e) {
+                        Velobbbity.instance.getLogger().atLevel(Level.ERROR).log("Could not write configuration " + pathString + ", keeping the current one: " + e.getMessage());
+                        return false;
+                    }
+                    dirty = false;
+                }
+                JsonObject reloaded;
+                try {
+                    reloaded = readFile();
+                } catch (IOException | JsonParseException e) {
+                    Velobbbity.instance.getLogger().atLevel(Level.WARN).log("Could not read configuration " + pathString + ", keeping the current one: " + e.getMessage());
+                    return false;
+                }
+                if (reloaded == null) {
+                    Velobbbity.instance.getLogger().atLevel(Level.WARN).log("Configuration " + pathString + " is empty, keeping the current one.");
+                    return false;
+                }
+                config = reloaded;
+                return true;
+            }
+        }
     }
 }
@@ -0,0 +1,87 @@
+package io.github.adainish.velobbity.configuration;
+
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a configuration file and calls back once it has stopped changing for the debounce period,
+ * so an editor saving in several steps (or an atomic replace) results in a single reload.
+ */
+public class ConfigWatcher
+{
+    private final Path file;
+    private final long debounceMillis;
+    private final Runnable onChange;
+    private final Logger logger;
+    private WatchService watchService;
+
+    public ConfigWatcher(Path file, long debounceMillis, Runnable onChange, Logger logger)
+    {
+        this.file = file.toAbsolutePath();
+        this.debounceMillis = debounceMillis;
+        this.onChange = onChange;
+        this.logger = logger;
+    }
+
+    public void start() throws IOException
+    {
+        this.watchService = file.getFileSystem().newWatchService();
+        file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(this::watchLoop, "Velobbity-ConfigWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop()
+    {
+        try {
+            if (watchService != null)
+                watchService.close();
+        } catch (IOException ignored) {
+            //closing anyway
+        }
+    }
+
+    private void watchLoop()
+    {
+        try {
+            while (true) {
+                if (!concernsFile(watchService.take()))
+                    continue;
+                //wait for the file to settle, every further change restarts the wait
+                WatchKey next;
+                while ((next = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null)
+                    concernsFile(next);
+                try {
+                    onChange.run();
+                } catch (Exception e) {
+                    logger.atLevel(Level.ERROR).log("Could not reload " + file.getFileName() + ": " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ignored) {
+            //stopped
+        }
+    }
+
+    private boolean concernsFile(WatchKey key)
+    {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path changed && changed.equals(file.getFileName()))
+                relevant = true;
+        }
+        key.reset();
+        return relevant;
+    }
+}
@@ -2,17 +2,38 @@ package io.github.adainish.velobbity.configuration;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import io.github.adainish.velobbity.data.LobbyServer;
+import io.github.adainish.velobbity.data.VelobbityPlayer;
 
 import java.lang.reflect.Modifier;
 
+/**
+ * Shared Gson instances. Gson is thread safe and expensive to build, so every caller uses one of these
+ * instead of creating its own. Plugin types are handled by hand written streaming adapters rather than reflection.
+ */
 public class GSON
 {
-    public static Gson PRETTY_MAIN_GSON()
+    private static final Gson PRETTY = builder().setPrettyPrinting().create();
+    private static final Gson COMPACT = builder().create();
+
+    private static GsonBuilder builder()
     {
         return new GsonBuilder()
-                .setPrettyPrinting()
                 .disableHtmlEscaping()
                 .excludeFieldsWithModifiers(Modifier.TRANSIENT, Modifier.STATIC, Modifier.FINAL)
-                .create();
+                .registerTypeAdapter(LobbyServer.class, new LobbyServerTypeAdapter().nullSafe())
+                .registerTypeAdapter(VelobbityPlayer.class, new VelobbityPlayerTypeAdapter().nullSafe());
+    }
+
+    //for files people read and edit
+    public static Gson PRETTY_MAIN_GSON()
+    {
+        return PRETTY;
+    }
+
+    //for anything sent over the wire or stored in redis
+    public static Gson COMPACT_GSON()
+    {
+        return COMPACT;
     }
 }
@@ -0,0 +1,61 @@
+package io.github.adainish.velobbity.configuration;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import io.github.adainish.velobbity.data.LobbyServer;
+
+import java.io.IOException;
+
+public class LobbyServerTypeAdapter extends TypeAdapter<LobbyServer>
+{
+    @Override
+    public void write(JsonWriter out, LobbyServer value) throws IOException
+    {
+        out.beginObject();
+        if (value.serverName != null)
+            out.name("serverName").value(value.serverName);
+        out.name("maxPlayers").value(value.maxPlayers);
+        out.name("connectsPerSecond").value(value.connectsPerSecond);
+        out.name("burst").value(value.burst);
+        out.endObject();
+    }
+
+    @Override
+    public LobbyServer read(JsonReader in) throws IOException
+    {
+        //missing fields keep their defaults, unknown ones are skipped, but a lobby needs a name
+        LobbyServer lobbyServer = new LobbyServer();
+        String serverName = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "serverName":
+                    serverName = in.nextString();
+                    break;
+                case "maxPlayers":
+                    lobbyServer.maxPlayers = in.nextInt();
+                    break;
+                case "connectsPerSecond":
+                    lobbyServer.connectsPerSecond = in.nextDouble();
+                    break;
+                case "burst":
+                    lobbyServer.burst = in.nextInt();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        if (serverName == null || serverName.isEmpty())
+            throw new IOException("Lobby server without a serverName");
+        lobbyServer.serverName = serverName;
+        return lobbyServer;
+    }
+}
@@ -0,0 +1,65 @@
+package io.github.adainish.velobbity.configuration;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import io.github.adainish.velobbity.data.VelobbityPlayer;
+
+import java.io.IOException;
+import java.util.UUID;
+
+public class VelobbityPlayerTypeAdapter extends TypeAdapter<VelobbityPlayer>
+{
+    @Override
+    public void write(JsonWriter out, VelobbityPlayer value) throws IOException
+    {
+        out.beginObject();
+        out.name("uuid").value(value.getUuid().toString());
+        if (value.username != null)
+            out.name("username").value(value.username);
+        out.name("lastServer").value(value.getLastServer());
+        out.name("desiredServer").value(value.getDesiredServer());
+        out.endObject();
+    }
+
+    @Override
+    public VelobbityPlayer read(JsonReader in) throws IOException
+    {
+        UUID uuid = null;
+        String username = null;
+        String lastServer = "";
+        String desiredServer = "";
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "uuid":
+                    uuid = UUID.fromString(in.nextString());
+                    break;
+                case "username":
+                    username = in.nextString();
+                    break;
+                case "lastServer":
+                    lastServer = in.nextString();
+                    break;
+                case "desiredServer":
+                    desiredServer = in.nextString();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        if (uuid == null)
+            throw new IOException("Player data without a uuid");
+        VelobbityPlayer player = new VelobbityPlayer(uuid, username);
+        player.setLastServer(lastServer);
+        player.setDesiredServer(desiredServer);
+        return player;
+    }
+}
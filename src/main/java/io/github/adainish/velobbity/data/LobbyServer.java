@@ -7,6 +7,10 @@ public class LobbyServer
 {
     public String serverName;
     public int maxPlayers;
+    //connects admitted per second, 0 for no limit
+    public double connectsPerSecond = 20;
+    //connects admitted at once before the rate applies
+    public int burst = 40;
     public LobbyServer()
     {
         this.serverName = "lobby";
@@ -19,6 +23,14 @@ public class LobbyServer
         this.maxPlayers = maxPlayers;
     }
 
+    public LobbyServer(LobbyServer other)
+    {
+        this.serverName = other.serverName;
+        this.maxPlayers = other.maxPlayers;
+        this.connectsPerSecond = other.connectsPerSecond;
+        this.burst = other.burst;
+    }
+
     public JsonElement toJSONElement()
     {
         return GSON.PRETTY_MAIN_GSON().toJsonTree(this);
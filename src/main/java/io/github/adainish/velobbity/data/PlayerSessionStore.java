@@ -0,0 +1,266 @@
+package io.github.adainish.velobbity.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * The players this proxy keeps transfer state for, keyed by uuid.
+ * Keys are stored as pairs of longs in open addressing tables, one per segment, so an entry costs two longs and a
+ * reference instead of a map node plus a UUID. Sessions are created from several paths that never see a disconnect,
+ * {@link #evictIdle} drops the ones that have not been touched for a while and whose player is gone.
+ */
+public class PlayerSessionStore
+{
+    private static final int SEGMENTS = 16;
+    private static final int INITIAL_CAPACITY = 64;
+    //rough shallow size of a VelobbityPlayer with compressed oops, the username is not counted
+    private static final long PLAYER_BYTES = 64;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private volatile long evictions;
+
+    public PlayerSessionStore()
+    {
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment();
+    }
+
+    public VelobbityPlayer get(UUID uuid)
+    {
+        return get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    //for callers that have the uuid as two longs, e.g. a decoded status frame, and should not build a UUID to look it up
+    public VelobbityPlayer get(long most, long least)
+    {
+        long hash = hash(most, least);
+        VelobbityPlayer player = segmentFor(hash).get(most, least, hash);
+        if (player != null)
+            player.lastSeenMillis = System.currentTimeMillis();
+        return player;
+    }
+
+    public VelobbityPlayer getOrCreate(UUID uuid, String username)
+    {
+        long most = uuid.getMostSignificantBits();
+        long least = uuid.getLeastSignificantBits();
+        long hash = hash(most, least);
+        VelobbityPlayer player = segmentFor(hash).getOrCreate(most, least, hash, username);
+        player.lastSeenMillis = System.currentTimeMillis();
+        return player;
+    }
+
+    public VelobbityPlayer remove(UUID uuid)
+    {
+        long most = uuid.getMostSignificantBits();
+        long least = uuid.getLeastSignificantBits();
+        long hash = hash(most, least);
+        return segmentFor(hash).remove(most, least, hash);
+    }
+
+    /**
+     * Drops every session idle for longer than idleMillis, unless keep says its player is still around.
+     * @param evicted called with the uuid of each dropped session, outside the store's locks
+     * @return the number of sessions dropped
+     */
+    public int evictIdle(long idleMillis, Predicate<UUID> keep, BiConsumer<UUID, VelobbityPlayer> evicted)
+    {
+        List<UUID> droppedIds = new ArrayList<>();
+        List<VelobbityPlayer> dropped = new ArrayList<>();
+        for (Segment segment : segments) {
+            List<VelobbityPlayer> idle = segment.idle(idleMillis);
+            for (VelobbityPlayer player : idle) {
+                //built once per idle session, for both callbacks
+                UUID uuid = player.getUuid();
+                if (keep.test(uuid))
+                    continue;
+                long hash = hash(player.getUuidMost(), player.getUuidLeast());
+                //touched or replaced since the scan, leave it
+                if (segment.removeIfIdle(player, hash, idleMillis)) {
+                    droppedIds.add(uuid);
+                    dropped.add(player);
+                }
+            }
+        }
+        synchronized (this) {
+            evictions += dropped.size();
+        }
+        for (int i = 0; i < dropped.size(); i++)
+            evicted.accept(droppedIds.get(i), dropped.get(i));
+        return dropped.size();
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for (Segment segment : segments)
+            size += segment.size;
+        return size;
+    }
+
+    public int capacity()
+    {
+        int capacity = 0;
+        for (Segment segment : segments)
+            capacity += segment.players.length;
+        return capacity;
+    }
+
+    public long evictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * @return estimated heap used by the store: the tables plus the sessions in them
+     */
+    public long footprintBytes()
+    {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                bytes += 16 + segment.keys.length * 8L + 16 + segment.players.length * 4L + segment.size * PLAYER_BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    private Segment segmentFor(long hash)
+    {
+        return segments[(int) (hash >>> 60)];
+    }
+
+    //package-private so tests can pick keys that collide or sit at the end of a table
+    static long hash(long most, long least)
+    {
+        //murmur3 finalizer, random uuids are well spread already but offline mode ones are not
+        long value = most ^ Long.rotateLeft(least, 32);
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    //linear probing with backward shift deletion, so there are no tombstones to clean up
+    private static final class Segment
+    {
+        private long[] keys = new long[INITIAL_CAPACITY * 2];
+        private VelobbityPlayer[] players = new VelobbityPlayer[INITIAL_CAPACITY];
+        private volatile int size;
+
+        synchronized VelobbityPlayer get(long most, long least, long hash)
+        {
+            int slot = find(most, least, hash);
+            return slot < 0 ? null : players[slot];
+        }
+
+        synchronized VelobbityPlayer getOrCreate(long most, long least, long hash, String username)
+        {
+            int mask = players.length - 1;
+            int slot = (int) hash & mask;
+            while (players[slot] != null) {
+                if (keys[slot * 2] == most && keys[slot * 2 + 1] == least)
+                    return players[slot];
+                slot = (slot + 1) & mask;
+            }
+            VelobbityPlayer player = new VelobbityPlayer(most, least, username);
+            keys[slot * 2] = most;
+            keys[slot * 2 + 1] = least;
+            players[slot] = player;
+            size++;
+            if (size * 4 > players.length * 3)
+                resize(players.length * 2);
+            return player;
+        }
+
+        synchronized VelobbityPlayer remove(long most, long least, long hash)
+        {
+            int slot = find(most, least, hash);
+            if (slot < 0)
+                return null;
+            VelobbityPlayer player = players[slot];
+            delete(slot);
+            return player;
+        }
+
+        synchronized boolean removeIfIdle(VelobbityPlayer player, long hash, long idleMillis)
+        {
+            int slot = find(player.getUuidMost(), player.getUuidLeast(), hash);
+            if (slot < 0 || players[slot] != player || player.idleMillis() < idleMillis)
+                return false;
+            delete(slot);
+            return true;
+        }
+
+        synchronized List<VelobbityPlayer> idle(long idleMillis)
+        {
+            List<VelobbityPlayer> idle = new ArrayList<>();
+            for (VelobbityPlayer player : players) {
+                if (player != null && player.idleMillis() >= idleMillis)
+                    idle.add(player);
+            }
+            return idle;
+        }
+
+        private int find(long most, long least, long hash)
+        {
+            int mask = players.length - 1;
+            int slot = (int) hash & mask;
+            while (players[slot] != null) {
+                if (keys[slot * 2] == most && keys[slot * 2 + 1] == least)
+                    return slot;
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void delete(int slot)
+        {
+            int mask = players.length - 1;
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (players[next] != null) {
+                int home = (int) hash(keys[next * 2], keys[next * 2 + 1]) & mask;
+                //move the entry back into the hole unless its home slot lies between the hole and where it sits
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole * 2] = keys[next * 2];
+                    keys[hole * 2 + 1] = keys[next * 2 + 1];
+                    players[hole] = players[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            players[hole] = null;
+            size--;
+            //give memory back after a peak, a proxy that emptied out should not hold a table sized for it
+            if (players.length > INITIAL_CAPACITY && size * 8 < players.length)
+                resize(players.length / 2);
+        }
+
+        private void resize(int capacity)
+        {
+            long[] oldKeys = keys;
+            VelobbityPlayer[] oldPlayers = players;
+            keys = new long[capacity * 2];
+            players = new VelobbityPlayer[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldPlayers.length; i++) {
+                if (oldPlayers[i] == null)
+                    continue;
+                long most = oldKeys[i * 2];
+                long least = oldKeys[i * 2 + 1];
+                int slot = (int) hash(most, least) & mask;
+                while (players[slot] != null)
+                    slot = (slot + 1) & mask;
+                keys[slot * 2] = most;
+                keys[slot * 2 + 1] = least;
+                players[slot] = oldPlayers[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package io.github.adainish.velobbity.data;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns backend server names to small int ids, so per player state can keep an int per server
+ * instead of a reference to whatever String instance the proxy or AjQueue handed us.
+ * The proxy's servers are registered up front so their ids are dense, see {@link ServerSet} for membership checks.
+ * Id 0 is always the empty name. Ids are never reused, a network only has so many server names.
+ */
+public final class ServerNames
+{
+    public static final int NONE = 0;
+
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] names = {""};
+
+    static {
+        ids.put("", NONE);
+    }
+
+    private ServerNames()
+    {
+    }
+
+    public static int id(String name)
+    {
+        if (name == null || name.isEmpty())
+            return NONE;
+        Integer id = ids.get(name);
+        if (id != null)
+            return id;
+        synchronized (ServerNames.class) {
+            id = ids.get(name);
+            if (id != null)
+                return id;
+            String[] current = names;
+            String[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = name;
+            //publish the name before the id, a reader that sees the id can always resolve it
+            names = grown;
+            ids.put(name, current.length);
+            return current.length;
+        }
+    }
+
+    /**
+     * @return the id of a name that was interned before, or -1 without interning it
+     */
+    public static int find(String name)
+    {
+        if (name == null || name.isEmpty())
+            return NONE;
+        return ids.getOrDefault(name, -1);
+    }
+
+    public static String name(int id)
+    {
+        return names[id];
+    }
+
+    public static int count()
+    {
+        return names.length;
+    }
+}
@@ -0,0 +1,77 @@
+package io.github.adainish.velobbity.data;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An immutable set of servers by {@link ServerNames} id, so a membership check on the routing path is a bit test
+ * instead of hashing a server name. Changes build a new set, publish it with a single reference swap.
+ */
+public final class ServerSet
+{
+    public static final ServerSet EMPTY = new ServerSet(new BitSet());
+
+    private final BitSet ids;
+
+    private ServerSet(BitSet ids)
+    {
+        this.ids = ids;
+    }
+
+    public static ServerSet of(Collection<String> serverNames)
+    {
+        BitSet ids = new BitSet();
+        for (String serverName : serverNames) {
+            if (serverName != null && !serverName.isEmpty())
+                ids.set(ServerNames.id(serverName));
+        }
+        return new ServerSet(ids);
+    }
+
+    public boolean contains(int id)
+    {
+        return id > ServerNames.NONE && ids.get(id);
+    }
+
+    //for names from outside the routing path, a name never interned is in no set
+    public boolean contains(String serverName)
+    {
+        return contains(ServerNames.find(serverName));
+    }
+
+    public ServerSet with(String serverName)
+    {
+        int id = ServerNames.id(serverName);
+        if (contains(id))
+            return this;
+        BitSet copy = (BitSet) ids.clone();
+        copy.set(id);
+        return new ServerSet(copy);
+    }
+
+    public ServerSet without(String serverName)
+    {
+        int id = ServerNames.find(serverName);
+        if (!contains(id))
+            return this;
+        BitSet copy = (BitSet) ids.clone();
+        copy.clear(id);
+        return new ServerSet(copy);
+    }
+
+    public boolean isEmpty()
+    {
+        return ids.isEmpty();
+    }
+
+    public int size()
+    {
+        return ids.cardinality();
+    }
+
+    public List<String> names()
+    {
+        return ids.stream().mapToObj(ServerNames::name).toList();
+    }
+}
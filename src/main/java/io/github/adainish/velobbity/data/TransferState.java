@@ -0,0 +1,40 @@
+package io.github.adainish.velobbity.data;
+
+/**
+ * Lifecycle of a player's trip from their origin server, through a lobby, to the server they queued for.
+ * Transitions are validated here and applied atomically by {@link VelobbityPlayer#transition}.
+ */
+public enum TransferState
+{
+    //on a regular server, not being moved
+    AT_ORIGIN,
+    //queued for another server and being sent to a lobby
+    TO_LOBBY,
+    //in a lobby, waiting for the origin server to finish its data sync
+    SYNCING,
+    //data sync finished, ready to be handed off
+    SAFE,
+    //added to the queue for their desired server
+    TRANSFERRING,
+    //arrived at their desired server
+    DONE;
+
+    public boolean canMoveTo(TransferState next)
+    {
+        switch (this) {
+            case AT_ORIGIN:
+            case DONE:
+                return next == TO_LOBBY || next == AT_ORIGIN;
+            case TO_LOBBY:
+                return next == SYNCING || next == SAFE || next == AT_ORIGIN;
+            case SYNCING:
+                return next == SAFE || next == TRANSFERRING || next == AT_ORIGIN;
+            case SAFE:
+                return next == TRANSFERRING || next == AT_ORIGIN;
+            case TRANSFERRING:
+                return next == DONE || next == AT_ORIGIN;
+            default:
+                return false;
+        }
+    }
+}
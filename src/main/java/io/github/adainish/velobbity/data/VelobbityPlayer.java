@@ -1,28 +1,89 @@
 package io.github.adainish.velobbity.data;
 
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 public class VelobbityPlayer
 {
-    public UUID uuid;
+    private static final AtomicReferenceFieldUpdater<VelobbityPlayer, TransferState> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(VelobbityPlayer.class, TransferState.class, "transferState");
+
+    //the uuid as two longs, a session should not keep a UUID object alive
+    private final long uuidMost;
+    private final long uuidLeast;
     public String username;
-    public String lastServer = "";
-    public String desiredServer = "";
+    private volatile int lastServer = ServerNames.NONE;
+    private volatile int desiredServer = ServerNames.NONE;
+    public volatile long lobbyArrivalMillis;
+    volatile long lastSeenMillis = System.currentTimeMillis();
+    private volatile TransferState transferState = TransferState.AT_ORIGIN;
+    private volatile long stateChangedAt = System.currentTimeMillis();
 
     public VelobbityPlayer(UUID uuid)
     {
-        this.uuid = uuid;
+        this(uuid, null);
     }
 
     public VelobbityPlayer(UUID uuid, String username)
     {
-        this.uuid = uuid;
+        this(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), username);
+    }
+
+    public VelobbityPlayer(long uuidMost, long uuidLeast, String username)
+    {
+        this.uuidMost = uuidMost;
+        this.uuidLeast = uuidLeast;
         this.username = username;
     }
 
     public UUID getUuid()
     {
-        return this.uuid;
+        return new UUID(uuidMost, uuidLeast);
+    }
+
+    public long getUuidMost()
+    {
+        return uuidMost;
+    }
+
+    public long getUuidLeast()
+    {
+        return uuidLeast;
+    }
+
+    public int getLastServerId()
+    {
+        return lastServer;
+    }
+
+    public String getLastServer()
+    {
+        return ServerNames.name(lastServer);
+    }
+
+    public void setLastServer(String serverName)
+    {
+        this.lastServer = ServerNames.id(serverName);
+    }
+
+    public int getDesiredServerId()
+    {
+        return desiredServer;
+    }
+
+    public String getDesiredServer()
+    {
+        return ServerNames.name(desiredServer);
+    }
+
+    public void setDesiredServer(String serverName)
+    {
+        this.desiredServer = ServerNames.id(serverName);
+    }
+
+    public long idleMillis()
+    {
+        return System.currentTimeMillis() - lastSeenMillis;
     }
 
     public String getUsername()
@@ -30,4 +91,48 @@ public class VelobbityPlayer
         return this.username;
     }
 
+    public TransferState getTransferState()
+    {
+        return this.transferState;
+    }
+
+    public long stateAgeMillis()
+    {
+        return System.currentTimeMillis() - stateChangedAt;
+    }
+
+    /**
+     * Atomically moves this player from one transfer state to another.
+     * Returns false without side effects when the player is not in the expected state
+     * (someone else already moved them) or the transition is not part of the lifecycle.
+     */
+    public boolean transition(TransferState from, TransferState to)
+    {
+        if (!from.canMoveTo(to) || !STATE.compareAndSet(this, from, to))
+            return false;
+        stateChangedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Claims this player for a new trip to a lobby. Only one caller wins, unless the
+     * current trip has not moved for staleAfterMillis, in which case it is taken over.
+     */
+    public boolean beginTransfer(long staleAfterMillis)
+    {
+        TransferState current = this.transferState;
+        boolean idle = current == TransferState.AT_ORIGIN || current == TransferState.DONE;
+        if (!idle && stateAgeMillis() < staleAfterMillis)
+            return false;
+        if (!STATE.compareAndSet(this, current, TransferState.TO_LOBBY))
+            return false;
+        stateChangedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    public void resetTransfer()
+    {
+        this.transferState = TransferState.AT_ORIGIN;
+        this.stateChangedAt = System.currentTimeMillis();
+    }
 }
@@ -0,0 +1,94 @@
+package io.github.adainish.velobbity.lobby;
+
+import io.github.adainish.velobbity.data.LobbyServer;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Limits how fast players are sent to each lobby, so a crashed backend's players arrive as a steady stream
+ * instead of all at once. Every lobby gets a token bucket from its configured rate and burst; players that
+ * find every lobby with room out of tokens wait in a first come, first served line that is drained as
+ * tokens come back.
+ */
+public class AdmissionController
+{
+    public interface Admission
+    {
+        //true once the player has left the line, admitted or otherwise
+        boolean admit(UUID uuid, String desiredServer);
+    }
+
+    private static class WaitingPlayer
+    {
+        final UUID uuid;
+        final String desiredServer;
+        volatile boolean cancelled;
+
+        WaitingPlayer(UUID uuid, String desiredServer)
+        {
+            this.uuid = uuid;
+            this.desiredServer = desiredServer;
+        }
+    }
+
+    private volatile Map<String, TokenBucket> buckets = Map.of();
+    private final ConcurrentLinkedQueue<WaitingPlayer> waitList = new ConcurrentLinkedQueue<>();
+    private final Map<UUID, WaitingPlayer> waiting = new ConcurrentHashMap<>();
+
+    /**
+     * Builds a bucket for every lobby with a positive rate, lobbies without one are not limited.
+     */
+    public void configure(Collection<LobbyServer> lobbyServers)
+    {
+        Map<String, TokenBucket> rebuilt = new HashMap<>();
+        for (LobbyServer lobbyServer : lobbyServers) {
+            if (lobbyServer.connectsPerSecond > 0)
+                rebuilt.put(lobbyServer.serverName, new TokenBucket(lobbyServer.connectsPerSecond, lobbyServer.burst));
+        }
+        this.buckets = rebuilt;
+    }
+
+    public boolean tryAcquire(String serverName)
+    {
+        TokenBucket bucket = buckets.get(serverName);
+        return bucket == null || bucket.tryAcquire();
+    }
+
+    public void enqueue(UUID uuid, String desiredServer)
+    {
+        WaitingPlayer waitingPlayer = new WaitingPlayer(uuid, desiredServer);
+        if (waiting.putIfAbsent(uuid, waitingPlayer) == null)
+            waitList.add(waitingPlayer);
+    }
+
+    public void cancel(UUID uuid)
+    {
+        WaitingPlayer waitingPlayer = waiting.remove(uuid);
+        if (waitingPlayer != null)
+            waitingPlayer.cancelled = true;
+    }
+
+    public int waitingCount()
+    {
+        return waiting.size();
+    }
+
+    /**
+     * Admits waiting players in order until one of them still has to wait.
+     */
+    public synchronized void drain(Admission admission)
+    {
+        WaitingPlayer head;
+        while ((head = waitList.peek()) != null) {
+            if (!head.cancelled && !admission.admit(head.uuid, head.desiredServer))
+                return;
+            waitList.poll();
+            waiting.remove(head.uuid, head);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package io.github.adainish.velobbity.lobby;
+
+/**
+ * Circuit breaker states of a lobby, as decided by {@link LobbyHealth}.
+ */
+public enum CircuitState
+{
+    //healthy, takes players as normal
+    CLOSED,
+    //failing, takes no players until it has cooled off
+    OPEN,
+    //cooled off, takes a few trial players while probes decide whether it recovered
+    HALF_OPEN
+}
@@ -0,0 +1,123 @@
+package io.github.adainish.velobbity.lobby;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A consistent hash ring over the configured lobbies. Every lobby owns a number of points on the ring in proportion
+ * to its max players, a player is hashed onto the ring and walks clockwise from there, so adding or removing one of
+ * N lobbies only moves the players whose walk passed through its points, about 1/N of them.
+ */
+public class HashRing
+{
+    //points per lobby of average size, enough to keep the spread within a few percent
+    private static final int POINTS_PER_LOBBY = 160;
+
+    private final String[] serverNames;
+    private final int[] maxPlayers;
+    private final long[] points;
+    private final int[] owners;
+
+    public HashRing(LobbyOccupancy[] lobbies)
+    {
+        int size = lobbies.length;
+        this.serverNames = new String[size];
+        this.maxPlayers = new int[size];
+        long totalMaxPlayers = 0;
+        for (int i = 0; i < size; i++) {
+            serverNames[i] = lobbies[i].serverName;
+            maxPlayers[i] = lobbies[i].maxPlayers;
+            totalMaxPlayers += lobbies[i].maxPlayers;
+        }
+        double meanMaxPlayers = size == 0 ? 1 : totalMaxPlayers / (double) size;
+        int[] pointCounts = new int[size];
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            pointCounts[i] = (int) Math.max(16, Math.min(POINTS_PER_LOBBY * 4, Math.round(POINTS_PER_LOBBY * maxPlayers[i] / meanMaxPlayers)));
+            total += pointCounts[i];
+        }
+        //hash and owner packed together so one sort orders both
+        long[][] packed = new long[total][];
+        int next = 0;
+        for (int i = 0; i < size; i++) {
+            long base = hash(serverNames[i]);
+            for (int point = 0; point < pointCounts[i]; point++)
+                packed[next++] = new long[]{mix(base + point * 0x9E3779B97F4A7C15L), i};
+        }
+        Arrays.sort(packed, (a, b) -> Long.compareUnsigned(a[0], b[0]));
+        this.points = new long[total];
+        this.owners = new int[total];
+        for (int i = 0; i < total; i++) {
+            points[i] = packed[i][0];
+            owners[i] = (int) packed[i][1];
+        }
+    }
+
+    /**
+     * @return whether this ring was built from the same lobbies, in the same order and with the same sizes
+     */
+    public boolean matches(LobbyOccupancy[] lobbies)
+    {
+        if (lobbies.length != serverNames.length)
+            return false;
+        for (int i = 0; i < lobbies.length; i++) {
+            if (!serverNames[i].equals(lobbies[i].serverName) || maxPlayers[i] != lobbies[i].maxPlayers)
+                return false;
+        }
+        return true;
+    }
+
+    public int size()
+    {
+        return points.length;
+    }
+
+    /**
+     * @return the ring position a player's walk starts at
+     */
+    public int start(UUID playerId)
+    {
+        long key = mix(playerId.getMostSignificantBits() ^ mix(playerId.getLeastSignificantBits()));
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(points[middle], key) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low == points.length ? 0 : low;
+    }
+
+    /**
+     * @return index into the lobbies the ring was built from, of the lobby owning the given position
+     */
+    public int owner(int position)
+    {
+        return owners[position % owners.length];
+    }
+
+    private static long hash(String value)
+    {
+        //FNV-1a, String.hashCode only has 32 bits to spread over the ring
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    //murmur3 finalizer
+    private static long mix(long value)
+    {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
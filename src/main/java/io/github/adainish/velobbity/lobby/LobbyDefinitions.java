@@ -0,0 +1,64 @@
+package io.github.adainish.velobbity.lobby;
+
+import io.github.adainish.velobbity.data.LobbyServer;
+import io.github.adainish.velobbity.data.ServerSet;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the configured lobby servers. A reload builds a new snapshot and publishes it with
+ * a single reference swap, so readers grab the current one once and never see a half applied config.
+ * The snapshot keeps its own copies of the servers it is built from; the ones it hands out are shared
+ * between readers and must not be modified.
+ */
+public final class LobbyDefinitions
+{
+    public static final LobbyDefinitions EMPTY = new LobbyDefinitions(List.of());
+
+    private final Map<String, LobbyServer> byName;
+    private final List<LobbyServer> servers;
+    private final ServerSet lobbyIds;
+
+    public LobbyDefinitions(List<LobbyServer> lobbyServers)
+    {
+        Map<String, LobbyServer> mapped = new LinkedHashMap<>();
+        for (LobbyServer lobbyServer : lobbyServers)
+            mapped.put(lobbyServer.serverName, new LobbyServer(lobbyServer));
+        this.byName = Map.copyOf(mapped);
+        this.servers = List.copyOf(mapped.values());
+        this.lobbyIds = ServerSet.of(mapped.keySet());
+    }
+
+    public boolean isLobby(String serverName)
+    {
+        return lobbyIds.contains(serverName);
+    }
+
+    //the routing path keeps server ids around, see ServerNames
+    public boolean isLobby(int serverId)
+    {
+        return lobbyIds.contains(serverId);
+    }
+
+    public ServerSet lobbyIds()
+    {
+        return lobbyIds;
+    }
+
+    public LobbyServer get(String serverName)
+    {
+        return byName.get(serverName);
+    }
+
+    public List<LobbyServer> servers()
+    {
+        return servers;
+    }
+
+    public int size()
+    {
+        return servers.size();
+    }
+}
@@ -0,0 +1,110 @@
+package io.github.adainish.velobbity.lobby;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Health of a single lobby as seen by the background prober: an EWMA of ping latency and a circuit breaker.
+ * Probe results are recorded from the prober's callbacks, the state is read by lobby selection without blocking.
+ */
+public class LobbyHealth
+{
+    //weight of the newest sample in the latency average
+    private static final double EWMA_ALPHA = 0.3;
+    //consecutive good probes a half-open lobby needs before it is trusted again
+    private static final int SUCCESSES_TO_CLOSE = 2;
+
+    public final String serverName;
+    private volatile CircuitState state = CircuitState.CLOSED;
+    private volatile double latencyMillis = -1;
+    private volatile long openedAt;
+    private int consecutiveFailures;
+    private int halfOpenSuccesses;
+    private final AtomicInteger trialPermits = new AtomicInteger();
+    private volatile int trialLimit;
+
+    public LobbyHealth(String serverName)
+    {
+        this.serverName = serverName;
+    }
+
+    /**
+     * @param slow whether the lobby answered, but slower than acceptable, which counts as a failure
+     * @return whether a slow answer opened a closed circuit
+     */
+    public synchronized boolean recordSuccess(long latencyMillis, boolean slow, int failureThreshold)
+    {
+        double previous = this.latencyMillis;
+        this.latencyMillis = previous < 0 ? latencyMillis : previous + EWMA_ALPHA * (latencyMillis - previous);
+        if (slow)
+            return recordFailure(failureThreshold);
+        consecutiveFailures = 0;
+        if (state == CircuitState.HALF_OPEN && ++halfOpenSuccesses >= SUCCESSES_TO_CLOSE)
+            state = CircuitState.CLOSED;
+        return false;
+    }
+
+    /**
+     * @return whether this failure opened a closed circuit, a half-open lobby sent back only had its trial players
+     */
+    public synchronized boolean recordFailure(int failureThreshold)
+    {
+        consecutiveFailures++;
+        //one bad probe is enough to send a half-open lobby back, a closed one gets a few chances
+        if (state == CircuitState.HALF_OPEN || (state == CircuitState.CLOSED && consecutiveFailures >= failureThreshold)) {
+            boolean wasClosed = state == CircuitState.CLOSED;
+            state = CircuitState.OPEN;
+            openedAt = System.currentTimeMillis();
+            return wasClosed;
+        }
+        return false;
+    }
+
+    //moves an open lobby to half-open once it has cooled off, called before every probe
+    public synchronized void cooledOff(long openMillis, int halfOpenTrials)
+    {
+        if (state != CircuitState.OPEN || System.currentTimeMillis() - openedAt < openMillis)
+            return;
+        state = CircuitState.HALF_OPEN;
+        halfOpenSuccesses = 0;
+        trialLimit = halfOpenTrials;
+        trialPermits.set(halfOpenTrials);
+    }
+
+    //whether the lobby belongs in the occupancy index at all
+    public boolean isAvailable()
+    {
+        return state != CircuitState.OPEN;
+    }
+
+    //whether a player may be placed here now, a half-open lobby only takes its trial players
+    public boolean tryAdmit()
+    {
+        CircuitState current = state;
+        if (current == CircuitState.CLOSED)
+            return true;
+        return current == CircuitState.HALF_OPEN && trialPermits.getAndUpdate(permits -> Math.max(0, permits - 1)) > 0;
+    }
+
+    //hands back a permit taken by tryAdmit for a player that was not placed here after all
+    public void releaseTrial()
+    {
+        if (state == CircuitState.HALF_OPEN)
+            trialPermits.getAndUpdate(permits -> Math.min(trialLimit, permits + 1));
+    }
+
+    public CircuitState getState()
+    {
+        return state;
+    }
+
+    //-1 until the first answer
+    public double getLatencyMillis()
+    {
+        return latencyMillis;
+    }
+
+    public synchronized int getConsecutiveFailures()
+    {
+        return consecutiveFailures;
+    }
+}
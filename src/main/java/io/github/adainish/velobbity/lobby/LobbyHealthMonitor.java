@@ -0,0 +1,112 @@
+package io.github.adainish.velobbity.lobby;
+
+import io.github.adainish.velobbity.data.LobbyServer;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Pings every configured lobby in the background and keeps a {@link LobbyHealth} per lobby.
+ * Lobby selection only reads the cached health, so a lagging or half-dead lobby is avoided
+ * without a status check on the queue event path.
+ */
+public class LobbyHealthMonitor
+{
+    private final Map<String, LobbyHealth> health = new ConcurrentHashMap<>();
+    private final Function<String, CompletableFuture<?>> ping;
+
+    public volatile long probeTimeoutMillis = 1000;
+    public volatile long slowResponseMillis = 500;
+    public volatile int failureThreshold = 3;
+    public volatile long openMillis = TimeUnit.SECONDS.toMillis(10);
+    public volatile int halfOpenTrials = 5;
+    //told the name of a lobby whose circuit just opened from closed, not again each time a half-open trial fails
+    public volatile Consumer<String> onOpen = serverName -> {};
+
+    /**
+     * @param ping pings a server by name, completing once it answers
+     */
+    public LobbyHealthMonitor(Function<String, CompletableFuture<?>> ping)
+    {
+        this.ping = ping;
+    }
+
+    //probes every lobby once, results are recorded as the answers come in
+    public void probeAll(Collection<LobbyServer> lobbies)
+    {
+        Set<String> names = lobbies.stream().map(lobbyServer -> lobbyServer.serverName).collect(Collectors.toSet());
+        health.keySet().retainAll(names);
+        for (String serverName : names)
+            probe(health.computeIfAbsent(serverName, LobbyHealth::new));
+    }
+
+    private void probe(LobbyHealth lobby)
+    {
+        lobby.cooledOff(openMillis, halfOpenTrials);
+        long start = System.nanoTime();
+        CompletableFuture<?> answer;
+        try {
+            answer = ping.apply(lobby.serverName);
+        } catch (RuntimeException e) {
+            failed(lobby);
+            return;
+        }
+        answer.orTimeout(probeTimeoutMillis, TimeUnit.MILLISECONDS).whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                failed(lobby);
+                return;
+            }
+            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (lobby.recordSuccess(latency, latency > slowResponseMillis, failureThreshold))
+                onOpen.accept(lobby.serverName);
+        });
+    }
+
+    private void failed(LobbyHealth lobby)
+    {
+        if (lobby.recordFailure(failureThreshold))
+            onOpen.accept(lobby.serverName);
+    }
+
+    //a lobby nobody has probed yet is given the benefit of the doubt
+    public boolean isAvailable(String serverName)
+    {
+        LobbyHealth lobby = health.get(serverName);
+        return lobby == null || lobby.isAvailable();
+    }
+
+    public boolean tryAdmit(String serverName)
+    {
+        LobbyHealth lobby = health.get(serverName);
+        return lobby == null || lobby.tryAdmit();
+    }
+
+    public void releaseTrial(String serverName)
+    {
+        LobbyHealth lobby = health.get(serverName);
+        if (lobby != null)
+            lobby.releaseTrial();
+    }
+
+    public Collection<LobbyHealth> getHealth()
+    {
+        return health.values();
+    }
+
+    public int openCount()
+    {
+        int open = 0;
+        for (LobbyHealth lobby : health.values()) {
+            if (lobby.getState() == CircuitState.OPEN)
+                open++;
+        }
+        return open;
+    }
+}
@@ -0,0 +1,37 @@
+package io.github.adainish.velobbity.lobby;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Occupancy of a single configured lobby as seen by the last snapshot,
+ * plus the placements this proxy made since that snapshot was taken.
+ */
+public class LobbyOccupancy
+{
+    public final String serverName;
+    public final int maxPlayers;
+    public volatile boolean online;
+    public volatile int players;
+    public final AtomicInteger reserved = new AtomicInteger();
+
+    public LobbyOccupancy(String serverName, int maxPlayers)
+    {
+        this.serverName = serverName;
+        this.maxPlayers = Math.max(1, maxPlayers);
+    }
+
+    public int load()
+    {
+        return players + reserved.get();
+    }
+
+    public double fillRatio()
+    {
+        return load() / (double) maxPlayers;
+    }
+
+    public boolean hasCapacity()
+    {
+        return online && load() < maxPlayers;
+    }
+}
@@ -0,0 +1,11 @@
+package io.github.adainish.velobbity.lobby;
+
+public enum LobbyPlacement
+{
+    //connected to a lobby
+    PLACED,
+    //a lobby has room but is taking connects as fast as allowed, waiting in line
+    WAITING,
+    //no lobby has room
+    FULL
+}
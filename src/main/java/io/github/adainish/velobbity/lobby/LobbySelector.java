@@ -0,0 +1,232 @@
+package io.github.adainish.velobbity.lobby;
+
+import io.github.adainish.velobbity.data.LobbyServer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Picks a lobby for a player from an occupancy index of the configured lobbies.
+ * The index is rebuilt from a periodic snapshot (see {@link #refresh}) rather than on every queue event,
+ * and every placement is counted against the chosen lobby straight away so a burst of logins between
+ * two snapshots is still spread out.
+ */
+public class LobbySelector
+{
+    private static final Comparator<LobbyOccupancy> BY_FILL_RATIO = Comparator.comparingDouble(LobbyOccupancy::fillRatio);
+
+    private volatile LobbyOccupancy[] lobbies = new LobbyOccupancy[0];
+    //placements are counted without it, it only keeps LEAST_LOADED picks and the snapshot swap apart
+    private final Object lock = new Object();
+    private volatile HashRing ring = new HashRing(new LobbyOccupancy[0]);
+    //rebalance moves planned onto a lobby but not made yet, counted into every snapshot until they are
+    private final Map<String, AtomicInteger> pendingMoves = new ConcurrentHashMap<>();
+    public volatile SelectionPolicy policy;
+    //how far above the average fill a lobby may go before CONSISTENT_HASH sends its players on to the next one
+    public volatile double affinityLoadFactor = 1.25;
+
+    public LobbySelector(SelectionPolicy policy)
+    {
+        this.policy = policy;
+    }
+
+    /**
+     * Rebuilds the occupancy index from a fresh snapshot.
+     * @param configured the configured lobby servers
+     * @param playerCount current player count of a server by name
+     * @param online whether a server is currently online
+     */
+    public void refresh(Collection<LobbyServer> configured, ToIntFunction<String> playerCount, Predicate<String> online)
+    {
+        List<LobbyOccupancy> snapshot = new ArrayList<>(configured.size());
+        for (LobbyServer lobbyServer : configured) {
+            LobbyOccupancy occupancy = new LobbyOccupancy(lobbyServer.serverName, lobbyServer.maxPlayers);
+            occupancy.players = playerCount.applyAsInt(lobbyServer.serverName) + pendingMoves(lobbyServer.serverName);
+            occupancy.online = online.test(lobbyServer.serverName);
+            snapshot.add(occupancy);
+        }
+        LobbyOccupancy[] rebuilt = snapshot.toArray(new LobbyOccupancy[0]);
+        //the ring only changes with the configured lobbies, not with every snapshot
+        HashRing currentRing = this.ring;
+        if (!currentRing.matches(rebuilt))
+            currentRing = new HashRing(rebuilt);
+        synchronized (lock) {
+            this.lobbies = rebuilt;
+            this.ring = currentRing;
+        }
+    }
+
+    /**
+     * Selects a lobby with free capacity and reserves a slot on it.
+     * @param joinable final per player check, e.g. whitelist or AjQueue joinability
+     * @return the chosen lobby, or null if none has capacity
+     */
+    public LobbyOccupancy select(Predicate<String> joinable)
+    {
+        return select(null, joinable);
+    }
+
+    /**
+     * Selects a lobby with free capacity and reserves a slot on it.
+     * @param playerId the player being placed, used by {@link SelectionPolicy#CONSISTENT_HASH}
+     * @param joinable final per player check, e.g. whitelist or AjQueue joinability
+     * @return the chosen lobby, or null if none has capacity
+     */
+    public LobbyOccupancy select(UUID playerId, Predicate<String> joinable)
+    {
+        return switch (policy) {
+            case POWER_OF_TWO_CHOICES -> selectPowerOfTwo(joinable);
+            case CONSISTENT_HASH -> playerId != null ? selectByAffinity(playerId, joinable) : selectLeastLoaded(joinable);
+            default -> selectLeastLoaded(joinable);
+        };
+    }
+
+    private LobbyOccupancy selectLeastLoaded(Predicate<String> joinable)
+    {
+        //a scan rather than a heap, reservations made elsewhere would leave a heap ordered by stale loads
+        synchronized (lock) {
+            return reserveLeastLoaded(this.lobbies, joinable);
+        }
+    }
+
+    private LobbyOccupancy selectPowerOfTwo(Predicate<String> joinable)
+    {
+        LobbyOccupancy[] current = this.lobbies;
+        int size = current.length;
+        if (size == 0)
+            return null;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        //a couple of sampling rounds, then fall back to a full pass so a nearly full network still finds a slot
+        for (int attempt = 0; attempt < 2; attempt++) {
+            LobbyOccupancy first = current[random.nextInt(size)];
+            LobbyOccupancy second = current[random.nextInt(size)];
+            LobbyOccupancy best = BY_FILL_RATIO.compare(first, second) <= 0 ? first : second;
+            LobbyOccupancy other = best == first ? second : first;
+            if (tryReserve(best, joinable))
+                return best;
+            if (other != best && tryReserve(other, joinable))
+                return other;
+        }
+        return reserveLeastLoaded(current, joinable);
+    }
+
+    //joinable may take an admission token, so it is only asked about the lobby that is actually picked
+    private LobbyOccupancy reserveLeastLoaded(LobbyOccupancy[] current, Predicate<String> joinable)
+    {
+        boolean[] refused = new boolean[current.length];
+        while (true) {
+            int best = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (!refused[i] && current[i].hasCapacity() && (best < 0 || BY_FILL_RATIO.compare(current[i], current[best]) < 0))
+                    best = i;
+            }
+            if (best < 0)
+                return null;
+            if (tryReserve(current[best], joinable))
+                return current[best];
+            refused[best] = true;
+        }
+    }
+
+    private LobbyOccupancy selectByAffinity(UUID playerId, Predicate<String> joinable)
+    {
+        LobbyOccupancy[] current;
+        HashRing currentRing;
+        synchronized (lock) {
+            current = this.lobbies;
+            currentRing = this.ring;
+        }
+        if (current.length == 0 || currentRing.size() == 0)
+            return null;
+        //bounded load: no lobby takes more than affinityLoadFactor times the average fill, weighted by its size
+        long load = 0;
+        long capacity = 0;
+        for (LobbyOccupancy occupancy : current) {
+            if (occupancy.online) {
+                load += occupancy.load();
+                capacity += occupancy.maxPlayers;
+            }
+        }
+        if (capacity == 0)
+            return null;
+        double boundedFill = affinityLoadFactor * (load + 1) / capacity;
+        boolean[] visited = new boolean[current.length];
+        int remaining = current.length;
+        List<LobbyOccupancy> overBound = null;
+        int start = currentRing.start(playerId);
+        for (int step = 0; step < currentRing.size() && remaining > 0; step++) {
+            int owner = currentRing.owner(start + step);
+            if (visited[owner])
+                continue;
+            visited[owner] = true;
+            remaining--;
+            LobbyOccupancy candidate = current[owner];
+            if (!candidate.hasCapacity())
+                continue;
+            if (candidate.load() >= Math.ceil(boundedFill * candidate.maxPlayers)) {
+                if (overBound == null)
+                    overBound = new ArrayList<>(2);
+                overBound.add(candidate);
+                continue;
+            }
+            if (tryReserve(candidate, joinable))
+                return candidate;
+        }
+        //every lobby under the bound refused the player, anything with room beats no lobby at all
+        if (overBound != null) {
+            for (LobbyOccupancy candidate : overBound) {
+                if (tryReserve(candidate, joinable))
+                    return candidate;
+            }
+        }
+        return null;
+    }
+
+    private boolean tryReserve(LobbyOccupancy occupancy, Predicate<String> joinable)
+    {
+        if (!occupancy.hasCapacity() || !joinable.test(occupancy.serverName))
+            return false;
+        occupancy.reserved.incrementAndGet();
+        return true;
+    }
+
+    public LobbyOccupancy[] getLobbies()
+    {
+        return lobbies;
+    }
+
+    /**
+     * @return the lobby's occupancy in the current snapshot, or null if it is not a configured lobby
+     */
+    public LobbyOccupancy find(String serverName)
+    {
+        for (LobbyOccupancy occupancy : lobbies) {
+            if (occupancy.serverName.equals(serverName))
+                return occupancy;
+        }
+        return null;
+    }
+
+    /**
+     * Counts planned moves onto a lobby, negative once they are made or given up.
+     */
+    public void addPendingMoves(String serverName, int moves)
+    {
+        pendingMoves.computeIfAbsent(serverName, name -> new AtomicInteger()).addAndGet(moves);
+    }
+
+    public int pendingMoves(String serverName)
+    {
+        AtomicInteger moves = pendingMoves.get(serverName);
+        return moves != null ? Math.max(0, moves.get()) : 0;
+    }
+}
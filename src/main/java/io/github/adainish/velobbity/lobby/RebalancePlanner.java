@@ -0,0 +1,99 @@
+package io.github.adainish.velobbity.lobby;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+/**
+ * Plans where a batch of displaced players goes, all at once instead of one greedy pick per player.
+ * Players are poured into the emptiest lobbies first (water-filling on fill ratio), so the lobbies end up as evenly
+ * filled as their max players allow and nobody is placed on a lobby that a later pick would find overfull.
+ */
+public final class RebalancePlanner
+{
+    public static class Assignment
+    {
+        public final UUID uuid;
+        public final String serverName;
+
+        Assignment(UUID uuid, String serverName)
+        {
+            this.uuid = uuid;
+            this.serverName = serverName;
+        }
+    }
+
+    public static class Plan
+    {
+        //ordered so that consecutive moves go to different lobbies, a wave spreads its connects
+        public final List<Assignment> assignments;
+        //players there was no room for
+        public final List<UUID> unplaced;
+
+        Plan(List<Assignment> assignments, List<UUID> unplaced)
+        {
+            this.assignments = assignments;
+            this.unplaced = unplaced;
+        }
+    }
+
+    private static class Target
+    {
+        final LobbyOccupancy lobby;
+        int load;
+        final List<UUID> players = new ArrayList<>();
+
+        Target(LobbyOccupancy lobby)
+        {
+            this.lobby = lobby;
+            this.load = lobby.load();
+        }
+
+        double fillRatio()
+        {
+            return load / (double) lobby.maxPlayers;
+        }
+    }
+
+    private RebalancePlanner()
+    {
+    }
+
+    /**
+     * Spreads the displaced players over the lobbies with capacity, other than the one they are leaving.
+     * Every assigned player is reserved on their lobby straight away, like a placement by {@link LobbySelector}.
+     * @param source the lobby being emptied, never a target
+     */
+    public static Plan plan(List<UUID> displaced, LobbyOccupancy[] lobbies, String source)
+    {
+        PriorityQueue<Target> emptiest = new PriorityQueue<>(Comparator.comparingDouble(Target::fillRatio));
+        List<Target> targets = new ArrayList<>();
+        for (LobbyOccupancy lobby : lobbies) {
+            if (!lobby.serverName.equals(source) && lobby.hasCapacity()) {
+                Target target = new Target(lobby);
+                targets.add(target);
+                emptiest.add(target);
+            }
+        }
+        int next = 0;
+        Target target;
+        while (next < displaced.size() && (target = emptiest.poll()) != null) {
+            target.players.add(displaced.get(next++));
+            target.load++;
+            if (target.load < target.lobby.maxPlayers)
+                emptiest.add(target);
+        }
+        List<Assignment> assignments = new ArrayList<>(next);
+        for (int round = 0; assignments.size() < next; round++) {
+            for (Target planned : targets) {
+                if (round < planned.players.size())
+                    assignments.add(new Assignment(planned.players.get(round), planned.lobby.serverName));
+            }
+        }
+        for (Target planned : targets)
+            planned.lobby.reserved.addAndGet(planned.players.size());
+        return new Plan(assignments, new ArrayList<>(displaced.subList(next, displaced.size())));
+    }
+}
@@ -0,0 +1,22 @@
+package io.github.adainish.velobbity.lobby;
+
+public enum SelectionPolicy
+{
+    //always pick the lobby with the lowest fill ratio
+    LEAST_LOADED,
+    //sample two random lobbies and pick the emptier one
+    POWER_OF_TWO_CHOICES,
+    //send a player back to the same lobby each time, unless it is well above the average fill
+    CONSISTENT_HASH;
+
+    public static SelectionPolicy fromString(String value, SelectionPolicy fallback)
+    {
+        if (value == null)
+            return fallback;
+        try {
+            return SelectionPolicy.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.adainish.velobbity.lobby;
+
+/**
+ * Classic token bucket: refills at a steady rate up to a burst capacity, one token per admitted connect.
+ */
+public class TokenBucket
+{
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double tokensPerSecond, int burst)
+    {
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000D;
+        this.capacity = Math.max(1, burst);
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public synchronized boolean tryAcquire()
+    {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        if (tokens < 1)
+            return false;
+        tokens -= 1;
+        return true;
+    }
+}
@@ -0,0 +1,100 @@
+package io.github.adainish.velobbity.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with log-linear buckets, in the style of an HDR histogram.
+ * Every power of two is split into 16 buckets, so any recorded value is known to within about 6%,
+ * from a microsecond up to about 38 hours, in a fixed 544 slot array.
+ * Values are recorded in microseconds.
+ */
+public class Histogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    //values below this are counted one bucket per microsecond
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final long MAX_VALUE = (1L << 37) - 1;
+    private static final int BUCKETS = bucketIndex(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long micros)
+    {
+        long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+        counts.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sum.add(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value))
+            current = max.get();
+    }
+
+    //records the time passed since a System.nanoTime() reading
+    public void recordSince(long startNanos)
+    {
+        record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    public long count()
+    {
+        return count.sum();
+    }
+
+    public long sumMicros()
+    {
+        return sum.sum();
+    }
+
+    public long maxMicros()
+    {
+        return max.get();
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the upper bound of the bucket holding the value at the quantile, 0 if nothing was recorded
+     */
+    public long percentileMicros(double quantile)
+    {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return Math.min(bucketUpperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    static int bucketIndex(long value)
+    {
+        if (value < LINEAR_LIMIT)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long bucketUpperBound(int index)
+    {
+        if (index < LINEAR_LIMIT)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,186 @@
+package io.github.adainish.velobbity.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, gauges and latency histograms for the transfer pipeline.
+ * Recording only touches {@link LongAdder}s and {@link Histogram}s, rendering walks the registered metrics
+ * and is only paid for when the endpoint is scraped or the summary command is run.
+ */
+public class Metrics
+{
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private interface Metric
+    {
+        void writePrometheus(StringBuilder out);
+
+        void writeSummary(List<String> lines);
+    }
+
+    /**
+     * A counter split by a single label, such as the lobby a player was placed in.
+     */
+    public static class LabeledCounter
+    {
+        private final Map<String, LongAdder> values = new ConcurrentHashMap<>();
+
+        public void increment(String label)
+        {
+            LongAdder value = values.get(label);
+            if (value == null)
+                value = values.computeIfAbsent(label, key -> new LongAdder());
+            value.increment();
+        }
+
+        public Map<String, Long> snapshot()
+        {
+            Map<String, Long> snapshot = new TreeMap<>();
+            values.forEach((label, value) -> snapshot.put(label, value.sum()));
+            return snapshot;
+        }
+    }
+
+    private final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+    public final Histogram lobbyDwell = histogram("velobbity_lobby_dwell_seconds", "Time from arriving in a lobby to being queued for the desired server");
+    public final Histogram preQueueHandler = histogram("velobbity_prequeue_handler_seconds", "Time spent handling a PreQueueEvent");
+    public final Histogram statusLookup = histogram("velobbity_status_lookup_seconds", "Time from asking redis for a player status to the answer, including batching");
+    public final LongAdder redirectRetries = counter("velobbity_redirect_retries_total", "Lobby redirects that found every lobby full and were scheduled for a retry");
+    public final LongAdder redirectGiveUps = counter("velobbity_redirect_give_ups_total", "Lobby redirects that ran out of retries");
+    public final LongAdder lobbyHopsAvoided = counter("velobbity_lobby_hops_avoided_total", "Transfers let straight through to their target because the player's data was already safe");
+    public final LongAdder rebalanceMoves = counter("velobbity_rebalance_moves_total", "Players moved off a draining or failing lobby by the rebalancer");
+    public final LabeledCounter placements = labeledCounter("velobbity_lobby_placements_total", "lobby", "Players placed in each lobby");
+
+    public Histogram histogram(String name, String help)
+    {
+        Histogram histogram = new Histogram();
+        register(name, help, histogram);
+        return histogram;
+    }
+
+    public LongAdder counter(String name, String help)
+    {
+        LongAdder counter = new LongAdder();
+        counter(name, help, counter::sum);
+        return counter;
+    }
+
+    public LabeledCounter labeledCounter(String name, String label, String help)
+    {
+        LabeledCounter counter = new LabeledCounter();
+        metrics.add(new Metric()
+        {
+            @Override
+            public void writePrometheus(StringBuilder out)
+            {
+                header(out, name, help, "counter");
+                counter.snapshot().forEach((value, count) ->
+                        out.append(name).append('{').append(label).append("=\"").append(escape(value)).append("\"} ").append(count).append('\n'));
+            }
+
+            @Override
+            public void writeSummary(List<String> lines)
+            {
+                lines.add(name + ": " + counter.snapshot());
+            }
+        });
+        return counter;
+    }
+
+    //exposes a counter owned by another component
+    public void counter(String name, String help, LongSupplier value)
+    {
+        single(name, help, "counter", value);
+    }
+
+    public void gauge(String name, String help, LongSupplier value)
+    {
+        single(name, help, "gauge", value);
+    }
+
+    //exposes a histogram owned by another component
+    public void register(String name, String help, Histogram histogram)
+    {
+        metrics.add(new Metric()
+        {
+            @Override
+            public void writePrometheus(StringBuilder out)
+            {
+                header(out, name, help, "summary");
+                for (double quantile : QUANTILES)
+                    out.append(name).append("{quantile=\"").append(quantile).append("\"} ").append(seconds(histogram.percentileMicros(quantile))).append('\n');
+                out.append(name).append("_sum ").append(seconds(histogram.sumMicros())).append('\n');
+                out.append(name).append("_count ").append(histogram.count()).append('\n');
+            }
+
+            @Override
+            public void writeSummary(List<String> lines)
+            {
+                lines.add(String.format(Locale.ROOT, "%s: n=%d p50=%.2fms p99=%.2fms max=%.2fms", name, histogram.count(),
+                        histogram.percentileMicros(0.5) / 1000.0, histogram.percentileMicros(0.99) / 1000.0, histogram.maxMicros() / 1000.0));
+            }
+        });
+    }
+
+    private void single(String name, String help, String type, LongSupplier value)
+    {
+        metrics.add(new Metric()
+        {
+            @Override
+            public void writePrometheus(StringBuilder out)
+            {
+                header(out, name, help, type);
+                out.append(name).append(' ').append(value.getAsLong()).append('\n');
+            }
+
+            @Override
+            public void writeSummary(List<String> lines)
+            {
+                lines.add(name + ": " + value.getAsLong());
+            }
+        });
+    }
+
+    //everything in the Prometheus text exposition format
+    public String toPrometheus()
+    {
+        StringBuilder out = new StringBuilder(4096);
+        for (Metric metric : metrics)
+            metric.writePrometheus(out);
+        return out.toString();
+    }
+
+    //one line per metric, for the console
+    public List<String> summary()
+    {
+        List<String> lines = new ArrayList<>(metrics.size());
+        for (Metric metric : metrics)
+            metric.writeSummary(lines);
+        return lines;
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type)
+    {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String seconds(long micros)
+    {
+        return Double.toString(micros / 1_000_000.0);
+    }
+
+    private static String escape(String labelValue)
+    {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.adainish.velobbity.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.adainish.velobbity.redis.PlayerStatusLookup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves {@link Metrics} on /metrics in the Prometheus text format, using the JDK's built-in http server
+ * on a single daemon thread, so scrapes never run on a proxy thread.
+ */
+public class MetricsHttpServer
+{
+    private final Metrics metrics;
+    private final HttpServer httpServer;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(PlayerStatusLookup.namedDaemonThreads("Velobbity-Metrics"));
+
+    public MetricsHttpServer(Metrics metrics, String host, int port) throws IOException
+    {
+        this.metrics = metrics;
+        this.httpServer = HttpServer.create(new InetSocketAddress(host, port), 0);
+        this.httpServer.createContext("/metrics", this::handle);
+        this.httpServer.setExecutor(executor);
+    }
+
+    public void start()
+    {
+        httpServer.start();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    public void stop()
+    {
+        httpServer.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,140 @@
+package io.github.adainish.velobbity.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares lobby occupancy between every proxy in the network through redis.
+ * Each proxy periodically reports how many players it has in (or on the way to) each lobby under a lease,
+ * and gets the network wide totals back from the same atomic script call. Proxies that stop reporting drop
+ * out once their lease expires. Totals are kept locally between syncs, so lobby selection never waits on redis.
+ */
+public class ClusterOccupancy
+{
+    //all keys share a hash tag so the script also runs on redis cluster
+    private static final String COUNTS_KEY = "velobbity:{occupancy}:counts";
+    private static final String LEASES_KEY = "velobbity:{occupancy}:leases";
+
+    /*
+     * KEYS[1] counts hash, field lobby|proxy
+     * KEYS[2] leases hash, field proxy, value lease expiry in server millis
+     * ARGV[1] proxy id, ARGV[2] lease millis, ARGV[3..] lobby, count pairs
+     * returns lobby, total pairs over every proxy with a live lease
+     */
+    private static final String SYNC_SCRIPT = """
+            local proxy = ARGV[1]
+            local time = redis.call('TIME')
+            local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+            redis.call('HSET', KEYS[2], proxy, now + tonumber(ARGV[2]))
+            for i = 3, #ARGV, 2 do
+              redis.call('HSET', KEYS[1], ARGV[i] .. '|' .. proxy, ARGV[i + 1])
+            end
+            local live = {}
+            local leases = redis.call('HGETALL', KEYS[2])
+            for i = 1, #leases, 2 do
+              if tonumber(leases[i + 1]) < now then
+                redis.call('HDEL', KEYS[2], leases[i])
+              else
+                live[leases[i]] = true
+              end
+            end
+            local totals = {}
+            local counts = redis.call('HGETALL', KEYS[1])
+            for i = 1, #counts, 2 do
+              local field = counts[i]
+              local separator = string.find(field, '|', 1, true)
+              if separator and live[string.sub(field, separator + 1)] then
+                local lobby = string.sub(field, 1, separator - 1)
+                totals[lobby] = (totals[lobby] or 0) + tonumber(counts[i + 1])
+              else
+                redis.call('HDEL', KEYS[1], field)
+              end
+            end
+            local result = {}
+            for lobby, total in pairs(totals) do
+              table.insert(result, lobby)
+              table.insert(result, tostring(total))
+            end
+            return result
+            """;
+
+    private final JedisPool jedisPool;
+    private final Logger logger;
+    public final String proxyId;
+    public final long leaseMillis;
+    private volatile String scriptSha;
+    private volatile Snapshot snapshot = new Snapshot(Map.of(), Map.of());
+
+    //what this proxy reported and the totals that came back with it, always read as a pair
+    private static final class Snapshot
+    {
+        final Map<String, Integer> reported;
+        final Map<String, Integer> totals;
+
+        Snapshot(Map<String, Integer> reported, Map<String, Integer> totals)
+        {
+            this.reported = reported;
+            this.totals = totals;
+        }
+    }
+
+    public ClusterOccupancy(JedisPool jedisPool, Logger logger, String proxyId, long leaseMillis)
+    {
+        this.jedisPool = jedisPool;
+        this.logger = logger;
+        this.proxyId = proxyId;
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Reports this proxy's counts and refreshes the network wide totals. Blocks on redis, run it off the event threads.
+     */
+    public void sync(Map<String, Integer> localCounts)
+    {
+        List<String> args = new ArrayList<>(2 + localCounts.size() * 2);
+        args.add(proxyId);
+        args.add(Long.toString(leaseMillis));
+        localCounts.forEach((lobby, count) -> {
+            args.add(lobby);
+            args.add(Integer.toString(count));
+        });
+        List<String> keys = List.of(COUNTS_KEY, LEASES_KEY);
+        try (Jedis jedis = jedisPool.getResource()) {
+            Object result;
+            try {
+                if (scriptSha == null)
+                    scriptSha = jedis.scriptLoad(SYNC_SCRIPT);
+                result = jedis.evalsha(scriptSha, keys, args);
+            } catch (JedisNoScriptException e) {
+                //script cache was flushed or redis restarted
+                scriptSha = jedis.scriptLoad(SYNC_SCRIPT);
+                result = jedis.evalsha(scriptSha, keys, args);
+            }
+            Map<String, Integer> updated = new HashMap<>();
+            if (result instanceof List<?> pairs) {
+                for (int i = 0; i + 1 < pairs.size(); i += 2)
+                    updated.put(String.valueOf(pairs.get(i)), Integer.parseInt(String.valueOf(pairs.get(i + 1))));
+            }
+            this.snapshot = new Snapshot(Map.copyOf(localCounts), Map.copyOf(updated));
+        } catch (Exception e) {
+            logger.atLevel(Level.WARN).log("Could not sync lobby occupancy with the cluster: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return players other proxies have in the lobby as of the last sync
+     */
+    public int remoteLoad(String lobby)
+    {
+        Snapshot current = this.snapshot;
+        return Math.max(0, current.totals.getOrDefault(lobby, 0) - current.reported.getOrDefault(lobby, 0));
+    }
+}
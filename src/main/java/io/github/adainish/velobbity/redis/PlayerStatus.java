@@ -0,0 +1,74 @@
+package io.github.adainish.velobbity.redis;
+
+/**
+ * Player data sync status as published on the player status channel, with its one byte wire code.
+ */
+public enum PlayerStatus
+{
+    UNKNOWN((byte) 0, ""),
+    SYNCING((byte) 1, "syncing"),
+    SAFE((byte) 2, "safe");
+
+    private static final PlayerStatus[] BY_CODE;
+
+    static {
+        BY_CODE = new PlayerStatus[256];
+        for (PlayerStatus status : values())
+            BY_CODE[status.code & 0xFF] = status;
+    }
+
+    public final byte code;
+    public final String name;
+
+    PlayerStatus(byte code, String name)
+    {
+        this.code = code;
+        this.name = name;
+    }
+
+    public static PlayerStatus fromCode(byte code)
+    {
+        PlayerStatus status = BY_CODE[code & 0xFF];
+        return status != null ? status : UNKNOWN;
+    }
+
+    public static PlayerStatus fromString(String name)
+    {
+        if (name == null)
+            return UNKNOWN;
+        for (PlayerStatus status : values()) {
+            if (status.name.equalsIgnoreCase(name.trim()))
+                return status;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * The status part of a value stored in redis, which is either a bare status
+     * or {@code status:reportedAt} with the epoch millis at which the backend stored it.
+     */
+    public static String statusOf(String value)
+    {
+        if (value == null)
+            return null;
+        int separator = value.indexOf(':');
+        return separator < 0 ? value : value.substring(0, separator);
+    }
+
+    /**
+     * @return when the backend stored a redis value, or -1 if the value does not say
+     */
+    public static long reportedAtOf(String value)
+    {
+        if (value == null)
+            return -1;
+        int separator = value.indexOf(':');
+        if (separator < 0)
+            return -1;
+        try {
+            return Long.parseLong(value.substring(separator + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
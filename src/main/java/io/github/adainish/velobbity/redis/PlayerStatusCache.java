@@ -0,0 +1,145 @@
+package io.github.adainish.velobbity.redis;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Local copy of the sync status of online players, so most status checks never leave the proxy.
+ * Entries come from the player status channel and from redis lookups, and are dropped when redis reports
+ * the player's key changed (keyspace notifications), when the player disconnects, or after a short TTL
+ * as a safety net for servers that do not have keyspace notifications enabled.
+ */
+public class PlayerStatusCache
+{
+    private static class CachedStatus
+    {
+        final String status;
+        //when the backend reported it, -1 if it did not say
+        final long reportedAt;
+        final long expiresAt;
+
+        CachedStatus(String status, long reportedAt, long expiresAt)
+        {
+            this.status = status;
+            this.reportedAt = reportedAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    //invalidation counters striped by uuid, a key change only holds back lookups of players sharing its stripe
+    private static final int VERSION_STRIPES = 4096;
+
+    private final Map<UUID, CachedStatus> entries = new ConcurrentHashMap<>();
+    private final Predicate<UUID> online;
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+    public volatile int maxEntries;
+    public volatile long ttlMillis;
+
+    public final LongAdder hits = new LongAdder();
+    public final LongAdder misses = new LongAdder();
+    public final LongAdder invalidations = new LongAdder();
+
+    public PlayerStatusCache(Predicate<UUID> online, int maxEntries, long ttlMillis)
+    {
+        this.online = online;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return the cached status, or null if the player's status has to be looked up
+     */
+    public String get(UUID playerId)
+    {
+        CachedStatus cached = entries.get(playerId);
+        if (cached == null || cached.expiresAt < System.currentTimeMillis()) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return cached.status;
+    }
+
+    /**
+     * @return the cached status if its backend reported it at most maxAgeMillis ago, otherwise null,
+     * also when the report did not say when it was made
+     */
+    public String getFresh(UUID playerId, long maxAgeMillis)
+    {
+        CachedStatus cached = entries.get(playerId);
+        long now = System.currentTimeMillis();
+        if (cached == null || cached.expiresAt < now || !isFresh(cached.reportedAt, now, maxAgeMillis)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return cached.status;
+    }
+
+    /**
+     * @return whether a report made at reportedAt, -1 if unknown, is at most maxAgeMillis old
+     */
+    public static boolean isFresh(long reportedAt, long now, long maxAgeMillis)
+    {
+        return reportedAt >= 0 && now - reportedAt <= maxAgeMillis;
+    }
+
+    /**
+     * Stores a status pushed to this proxy, only for players that are online here.
+     * @param reportedAt when the backend reported it, -1 if unknown
+     */
+    public void put(UUID playerId, String status, long reportedAt)
+    {
+        if (!online.test(playerId))
+            return;
+        if (entries.size() >= maxEntries && !entries.containsKey(playerId))
+            return;
+        entries.put(playerId, new CachedStatus(status, reportedAt, System.currentTimeMillis() + ttlMillis));
+    }
+
+    /**
+     * Marks the start of a lookup, pass the result to {@link #fill} once it completes.
+     */
+    public long beginLookup(UUID playerId)
+    {
+        return versions.get(stripe(playerId));
+    }
+
+    /**
+     * Stores a looked up status unless the player's key changed while the lookup was in flight,
+     * in which case the result may already be stale.
+     */
+    public void fill(UUID playerId, String status, long reportedAt, long version)
+    {
+        if (versions.get(stripe(playerId)) == version)
+            put(playerId, status, reportedAt);
+    }
+
+    public void invalidate(UUID playerId)
+    {
+        versions.incrementAndGet(stripe(playerId));
+        if (entries.remove(playerId) != null)
+            invalidations.increment();
+    }
+
+    public void evict(UUID playerId)
+    {
+        entries.remove(playerId);
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    private static int stripe(UUID playerId)
+    {
+        long bits = playerId.getMostSignificantBits() ^ playerId.getLeastSignificantBits();
+        int hash = (int) (bits ^ (bits >>> 32));
+        return (hash ^ (hash >>> 16)) & (VERSION_STRIPES - 1);
+    }
+}
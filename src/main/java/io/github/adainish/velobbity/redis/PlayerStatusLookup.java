@@ -0,0 +1,167 @@
+package io.github.adainish.velobbity.redis;
+
+import io.github.adainish.velobbity.metrics.Histogram;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Looks up a player's sync status in redis without blocking the calling thread.
+ * Lookups are collected for a short window, or until a batch is full, and resolved together with a
+ * single MGET, so a wave of reconnecting players costs a handful of round trips instead of one each.
+ * Every lookup is bounded by a deadline, so a slow redis or an exhausted {@link JedisPool}
+ * never stalls the proxy event pipeline. Both the lookups waiting for a batch and the batches waiting for a
+ * thread are bounded, past that a lookup fails right away instead of piling up behind a slow redis.
+ */
+public class PlayerStatusLookup
+{
+    private static class PendingLookup
+    {
+        final UUID playerId;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+
+        PendingLookup(UUID playerId)
+        {
+            this.playerId = playerId;
+        }
+    }
+
+    //batches waiting for a free lookup thread
+    private static final int MAX_QUEUED_BATCHES = 64;
+
+    private final JedisPool jedisPool;
+    private final ExecutorService executor;
+    private final BlockingQueue<PendingLookup> pending;
+    private final Thread batcher;
+    private final long timeoutMillis;
+    private final long batchWindowMillis;
+    private final int maxBatchSize;
+    private volatile boolean running = true;
+
+    public final LongAdder lookups = new LongAdder();
+    public final LongAdder roundTrips = new LongAdder();
+    public final LongAdder rejected = new LongAdder();
+    public final Histogram roundTripLatency = new Histogram();
+
+    public PlayerStatusLookup(JedisPool jedisPool, int threads, long timeoutMillis, long batchWindowMillis, int maxBatchSize)
+    {
+        this.jedisPool = jedisPool;
+        this.timeoutMillis = timeoutMillis;
+        this.batchWindowMillis = batchWindowMillis;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.pending = new LinkedBlockingQueue<>(this.maxBatchSize * MAX_QUEUED_BATCHES);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_BATCHES), namedDaemonThreads("Velobbity-StatusLookup"));
+        this.batcher = namedDaemonThreads("Velobbity-StatusBatcher").newThread(this::batchLoop);
+        this.batcher.start();
+    }
+
+    /**
+     * @return a future completed with the player's status, an empty string if none is stored,
+     * or exceptionally with a {@link java.util.concurrent.TimeoutException} once the deadline passes
+     * and a {@link RejectedExecutionException} if too many lookups are already waiting
+     */
+    public CompletableFuture<String> lookup(UUID playerId)
+    {
+        PendingLookup lookup = new PendingLookup(playerId);
+        lookups.increment();
+        if (!pending.offer(lookup))
+            reject(List.of(lookup));
+        return lookup.future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void batchLoop()
+    {
+        while (running) {
+            try {
+                PendingLookup first = pending.take();
+                List<PendingLookup> batch = new ArrayList<>(Math.min(maxBatchSize, 16));
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWindowMillis);
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    //take whatever is already waiting, then wait out the rest of the window
+                    PendingLookup next = remaining > 0 ? pending.poll(remaining, TimeUnit.NANOSECONDS) : pending.poll();
+                    if (next == null)
+                        break;
+                    batch.add(next);
+                }
+                try {
+                    executor.execute(() -> resolve(batch));
+                } catch (RejectedExecutionException e) {
+                    reject(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void resolve(List<PendingLookup> batch)
+    {
+        //the same player may be looked up more than once per window, fetch their key once
+        Map<String, List<PendingLookup>> byKey = new LinkedHashMap<>();
+        for (PendingLookup lookup : batch) {
+            if (!lookup.future.isDone())
+                byKey.computeIfAbsent(lookup.playerId.toString(), key -> new ArrayList<>(1)).add(lookup);
+        }
+        if (byKey.isEmpty())
+            return;
+        String[] keys = byKey.keySet().toArray(new String[0]);
+        try (Jedis jedis = jedisPool.getResource()) {
+            roundTrips.increment();
+            long start = System.nanoTime();
+            List<String> statuses = jedis.mget(keys);
+            roundTripLatency.recordSince(start);
+            for (int i = 0; i < keys.length; i++) {
+                String status = statuses.get(i);
+                for (PendingLookup lookup : byKey.get(keys[i]))
+                    lookup.future.complete(status != null ? status : "");
+            }
+        } catch (Exception e) {
+            for (List<PendingLookup> lookups : byKey.values())
+                lookups.forEach(lookup -> lookup.future.completeExceptionally(e));
+        }
+    }
+
+    private void reject(List<PendingLookup> batch)
+    {
+        rejected.add(batch.size());
+        RejectedExecutionException e = new RejectedExecutionException("Too many status lookups waiting");
+        batch.forEach(lookup -> lookup.future.completeExceptionally(e));
+    }
+
+    public void shutdown()
+    {
+        running = false;
+        batcher.interrupt();
+        executor.shutdownNow();
+    }
+
+    public static ThreadFactory namedDaemonThreads(String name)
+    {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
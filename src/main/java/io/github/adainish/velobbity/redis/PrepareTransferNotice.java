@@ -0,0 +1,88 @@
+package io.github.adainish.velobbity.redis;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.UUID;
+
+/**
+ * Tells a backend that one of its players is about to leave for another server, so it can start saving their data
+ * while the player hops through a lobby instead of after they arrived there. Published on {@link #CHANNEL} as JSON:
+ * <pre>
+ * {"v":1,"uuid":"&lt;player uuid&gt;","origin":"&lt;server they are on&gt;","destination":"&lt;server they queued for&gt;","sentAt":&lt;epoch millis&gt;}
+ * </pre>
+ * A backend should treat it as a hint: the player may still be refused a lobby and stay, and the usual
+ * status updates on playerStatusUpdates remain what releases them.
+ */
+public final class PrepareTransferNotice
+{
+    public static final String CHANNEL = "prepareTransfer";
+    public static final int VERSION = 1;
+
+    public final UUID uuid;
+    public final String origin;
+    public final String destination;
+    public final long sentAt;
+
+    public PrepareTransferNotice(UUID uuid, String origin, String destination, long sentAt)
+    {
+        this.uuid = uuid;
+        this.origin = origin != null ? origin : "";
+        this.destination = destination != null ? destination : "";
+        this.sentAt = sentAt;
+    }
+
+    public String encode()
+    {
+        StringWriter out = new StringWriter(160);
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("v").value(VERSION);
+            writer.name("uuid").value(uuid.toString());
+            writer.name("origin").value(origin);
+            writer.name("destination").value(destination);
+            writer.name("sentAt").value(sentAt);
+            writer.endObject();
+        } catch (IOException e) {
+            //a StringWriter does not throw
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    public static PrepareTransferNotice decode(String message) throws IOException
+    {
+        UUID uuid = null;
+        String origin = "";
+        String destination = "";
+        long sentAt = 0;
+        try (JsonReader reader = new JsonReader(new StringReader(message))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "uuid":
+                        uuid = UUID.fromString(reader.nextString());
+                        break;
+                    case "origin":
+                        origin = reader.nextString();
+                        break;
+                    case "destination":
+                        destination = reader.nextString();
+                        break;
+                    case "sentAt":
+                        sentAt = reader.nextLong();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        if (uuid == null)
+            throw new IOException("Prepare transfer notice without a uuid");
+        return new PrepareTransferNotice(uuid, origin, destination, sentAt);
+    }
+}
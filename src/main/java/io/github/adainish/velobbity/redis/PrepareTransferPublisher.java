@@ -0,0 +1,122 @@
+package io.github.adainish.velobbity.redis;
+
+import io.github.adainish.velobbity.metrics.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes {@link PrepareTransferNotice}s from a background thread, the PreQueueEvent handler only queues them.
+ * A notice goes out as soon as the thread gets to it; under a login storm everything queued in the meantime
+ * is sent in one pipeline. The queue is bounded, a notice is only a head start and is dropped rather than
+ * let pile up while redis is unreachable.
+ */
+public class PrepareTransferPublisher
+{
+    private final JedisPool jedisPool;
+    private final Logger logger;
+    private final int maxQueued;
+    private final ConcurrentLinkedQueue<PrepareTransferNotice> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(PlayerStatusLookup.namedDaemonThreads("Velobbity-PrepareTransfer"));
+
+    public final LongAdder published = new LongAdder();
+    public final LongAdder dropped = new LongAdder();
+    public final Histogram publishLatency = new Histogram();
+
+    public PrepareTransferPublisher(JedisPool jedisPool, Logger logger, int maxQueued)
+    {
+        this.jedisPool = jedisPool;
+        this.logger = logger;
+        this.maxQueued = maxQueued;
+    }
+
+    public void publish(PrepareTransferNotice notice)
+    {
+        //a queue attempt racing the proxy shutdown
+        if (executor.isShutdown()) {
+            dropped.increment();
+            return;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        queue.add(notice);
+        if (draining.compareAndSet(false, true))
+            scheduleDrain();
+    }
+
+    private void scheduleDrain()
+    {
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            //shut down in the meantime, whatever is left would only be sent to a closing pool
+            draining.set(false);
+            PrepareTransferNotice notice;
+            while ((notice = queue.poll()) != null) {
+                queued.decrementAndGet();
+                dropped.increment();
+            }
+        }
+    }
+
+    private void drain()
+    {
+        try {
+            List<PrepareTransferNotice> batch = new ArrayList<>();
+            PrepareTransferNotice notice;
+            while ((notice = queue.poll()) != null) {
+                queued.decrementAndGet();
+                batch.add(notice);
+            }
+            if (!batch.isEmpty())
+                send(batch);
+        } finally {
+            draining.set(false);
+            //a notice queued after the last poll but before the flag was cleared
+            if (!queue.isEmpty() && draining.compareAndSet(false, true))
+                scheduleDrain();
+        }
+    }
+
+    private void send(List<PrepareTransferNotice> batch)
+    {
+        long start = System.nanoTime();
+        try (Jedis jedis = jedisPool.getResource()) {
+            if (batch.size() == 1) {
+                jedis.publish(PrepareTransferNotice.CHANNEL, batch.get(0).encode());
+            } else {
+                Pipeline pipeline = jedis.pipelined();
+                for (PrepareTransferNotice notice : batch)
+                    pipeline.publish(PrepareTransferNotice.CHANNEL, notice.encode());
+                pipeline.sync();
+            }
+            publishLatency.recordSince(start);
+            published.add(batch.size());
+        } catch (Exception e) {
+            dropped.add(batch.size());
+            logger.atLevel(Level.WARN).log("Could not publish " + batch.size() + " prepare transfer notices: " + e.getMessage());
+        }
+    }
+
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+}
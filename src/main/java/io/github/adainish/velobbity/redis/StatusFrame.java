@@ -0,0 +1,291 @@
+package io.github.adainish.velobbity.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Binary wire format for player status updates. One frame carries any number of updates so
+ * backends can publish a whole batch at once. All values are big endian.
+ * <pre>
+ * frame:  version (1) | record count (2) | records...
+ * record: uuid most significant bits (8) | least significant bits (8) | status code (1) | flags (1)
+ *         | timestamp in epoch millis (8, if FLAG_TIMESTAMP) | origin length (1) + origin utf-8 (if FLAG_ORIGIN)
+ * </pre>
+ * An origin longer than 255 bytes is cut at the last whole character that fits.
+ * Plain text messages of the form {@code uuid:status} or {@code uuid status} are still understood,
+ * they never start with the version byte.
+ */
+public final class StatusFrame
+{
+    public static final byte VERSION = 1;
+    public static final int HEADER_SIZE = 3;
+    public static final int MAX_RECORDS = 0xFFFF;
+    public static final byte FLAG_TIMESTAMP = 1;
+    public static final byte FLAG_ORIGIN = 1 << 1;
+
+    private StatusFrame()
+    {
+    }
+
+    public static boolean isBinary(byte[] message)
+    {
+        return message.length >= HEADER_SIZE && message[0] == VERSION;
+    }
+
+    /**
+     * Encodes updates into a reusable buffer, nothing is allocated per record once the buffer has grown.
+     */
+    public static final class Writer
+    {
+        private byte[] buffer;
+        private int position;
+        private int count;
+
+        public Writer(int initialCapacity)
+        {
+            this.buffer = new byte[Math.max(HEADER_SIZE, initialCapacity)];
+            reset();
+        }
+
+        public void reset()
+        {
+            buffer[0] = VERSION;
+            position = HEADER_SIZE;
+            count = 0;
+        }
+
+        public int count()
+        {
+            return count;
+        }
+
+        public int size()
+        {
+            return position;
+        }
+
+        public Writer add(long mostSignificantBits, long leastSignificantBits, PlayerStatus status, long timestamp, String origin)
+        {
+            if (count == MAX_RECORDS)
+                throw new IllegalStateException("Status frame is full");
+            //at most three bytes per char, and never more than fit the length byte
+            ensureCapacity(18 + (timestamp > 0 ? 8 : 0) + (origin != null ? 1 + Math.min(origin.length() * 3, 255) : 0));
+            writeLong(mostSignificantBits);
+            writeLong(leastSignificantBits);
+            buffer[position++] = status.code;
+            byte flags = 0;
+            if (timestamp > 0)
+                flags |= FLAG_TIMESTAMP;
+            if (origin != null)
+                flags |= FLAG_ORIGIN;
+            buffer[position++] = flags;
+            if (timestamp > 0)
+                writeLong(timestamp);
+            if (origin != null)
+                writeOrigin(origin);
+            count++;
+            return this;
+        }
+
+        public Writer add(UUID uuid, PlayerStatus status, long timestamp, String origin)
+        {
+            return add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), status, timestamp, origin);
+        }
+
+        /**
+         * @return a copy of the finished frame, ready to publish
+         */
+        public byte[] toByteArray()
+        {
+            buffer[1] = (byte) (count >>> 8);
+            buffer[2] = (byte) count;
+            return Arrays.copyOf(buffer, position);
+        }
+
+        //utf-8 straight into the buffer, server names are nearly always ascii and take one byte per char
+        private void writeOrigin(String origin)
+        {
+            int lengthAt = position++;
+            int end = position + 255;
+            for (int i = 0; i < origin.length(); i++) {
+                char c = origin.charAt(i);
+                if (c < 0x80) {
+                    if (position + 1 > end)
+                        break;
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    if (position + 2 > end)
+                        break;
+                    buffer[position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < origin.length() && Character.isLowSurrogate(origin.charAt(i + 1))) {
+                    if (position + 4 > end)
+                        break;
+                    int codePoint = Character.toCodePoint(c, origin.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    if (position + 3 > end)
+                        break;
+                    //a lone surrogate is written as '?', like String.getBytes does
+                    if (Character.isSurrogate(c))
+                        c = '?';
+                    if (c < 0x80) {
+                        buffer[position++] = (byte) c;
+                        continue;
+                    }
+                    buffer[position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            buffer[lengthAt] = (byte) (position - lengthAt - 1);
+        }
+
+        private void writeLong(long value)
+        {
+            for (int shift = 56; shift >= 0; shift -= 8)
+                buffer[position++] = (byte) (value >>> shift);
+        }
+
+        private void ensureCapacity(int extra)
+        {
+            if (position + extra > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+        }
+    }
+
+    /**
+     * Flyweight cursor over a received frame. Fields of the current record are read straight from
+     * the message bytes, only {@link #uuid()} and {@link #origin()} allocate when called.
+     */
+    public static final class Reader
+    {
+        private byte[] data;
+        private int position;
+        private int remaining;
+        private long mostSignificantBits;
+        private long leastSignificantBits;
+        private byte status;
+        private byte flags;
+        private long timestamp;
+        private int originOffset;
+        private int originLength;
+
+        /**
+         * @return false if the message is not a binary frame this reader understands
+         */
+        public boolean wrap(byte[] message)
+        {
+            if (!isBinary(message))
+                return false;
+            this.data = message;
+            this.remaining = ((message[1] & 0xFF) << 8) | (message[2] & 0xFF);
+            this.position = HEADER_SIZE;
+            return true;
+        }
+
+        /**
+         * Advances to the next record.
+         * @throws IllegalArgumentException if the frame is truncated
+         */
+        public boolean next()
+        {
+            if (remaining == 0)
+                return false;
+            require(18);
+            mostSignificantBits = readLong();
+            leastSignificantBits = readLong();
+            status = data[position++];
+            flags = data[position++];
+            timestamp = 0;
+            originLength = 0;
+            if ((flags & FLAG_TIMESTAMP) != 0) {
+                require(8);
+                timestamp = readLong();
+            }
+            if ((flags & FLAG_ORIGIN) != 0) {
+                require(1);
+                originLength = data[position++] & 0xFF;
+                require(originLength);
+                originOffset = position;
+                position += originLength;
+            }
+            remaining--;
+            return true;
+        }
+
+        public long mostSignificantBits()
+        {
+            return mostSignificantBits;
+        }
+
+        public long leastSignificantBits()
+        {
+            return leastSignificantBits;
+        }
+
+        public UUID uuid()
+        {
+            return new UUID(mostSignificantBits, leastSignificantBits);
+        }
+
+        public PlayerStatus status()
+        {
+            return PlayerStatus.fromCode(status);
+        }
+
+        public long timestamp()
+        {
+            return timestamp;
+        }
+
+        public boolean hasTimestamp()
+        {
+            return (flags & FLAG_TIMESTAMP) != 0;
+        }
+
+        public boolean hasOrigin()
+        {
+            return (flags & FLAG_ORIGIN) != 0;
+        }
+
+        public String origin()
+        {
+            return hasOrigin() ? new String(data, originOffset, originLength, StandardCharsets.UTF_8) : null;
+        }
+
+        public boolean originEquals(String serverName)
+        {
+            if (!hasOrigin())
+                return false;
+            //byte by byte while the name is ascii, the rare other name is compared decoded
+            int length = serverName.length();
+            for (int i = 0; i < length; i++) {
+                char c = serverName.charAt(i);
+                if (c >= 0x80)
+                    return serverName.equals(origin());
+                if (i >= originLength || data[originOffset + i] != (byte) c)
+                    return false;
+            }
+            return length == originLength;
+        }
+
+        private long readLong()
+        {
+            long value = 0;
+            for (int i = 0; i < 8; i++)
+                value = (value << 8) | (data[position++] & 0xFF);
+            return value;
+        }
+
+        private void require(int bytes)
+        {
+            if (position + bytes > data.length)
+                throw new IllegalArgumentException("Truncated status frame");
+        }
+    }
+}
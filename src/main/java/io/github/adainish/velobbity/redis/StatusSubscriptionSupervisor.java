@@ -0,0 +1,164 @@
+package io.github.adainish.velobbity.redis;
+
+import io.github.adainish.velobbity.PlayerStatusSubscriber;
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the player status subscription alive and takes message handling off the redis socket thread.
+ * The subscription runs on its own thread which reconnects and resubscribes with backoff whenever the
+ * connection drops. Received messages are handed to a bounded queue drained by a small worker pool;
+ * when the queue is full messages are dropped and counted rather than backing up the connection.
+ */
+public class StatusSubscriptionSupervisor
+{
+    private static final long MIN_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    private final JedisPool jedisPool;
+    private final String channel;
+    private final byte[] channelBytes;
+    private volatile byte[] keyspacePattern;
+    private final Logger logger;
+    private final ThreadPoolExecutor workers;
+    private final int queueCapacity;
+    private volatile boolean running;
+    private volatile Thread subscriptionThread;
+    private volatile PlayerStatusSubscriber subscriber;
+    private volatile long backoffMillis = MIN_BACKOFF_MILLIS;
+
+    public final LongAdder received = new LongAdder();
+    public final LongAdder processed = new LongAdder();
+    public final LongAdder dropped = new LongAdder();
+    public final LongAdder failed = new LongAdder();
+    public final AtomicInteger reconnects = new AtomicInteger();
+    public final AtomicInteger queueHighWater = new AtomicInteger();
+
+    public StatusSubscriptionSupervisor(JedisPool jedisPool, String channel, Logger logger, int workerThreads, int queueCapacity)
+    {
+        this.jedisPool = jedisPool;
+        this.channel = channel;
+        this.channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+        this.logger = logger;
+        this.queueCapacity = queueCapacity;
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), PlayerStatusLookup.namedDaemonThreads("Velobbity-StatusWorker"),
+                (runnable, executor) -> dropped.increment());
+    }
+
+    /**
+     * Also listen for changes to the player status keys in the given database, must be set before {@link #start()}.
+     */
+    public void watchKeyspace(int database)
+    {
+        //status keys are the bare player uuid
+        String pattern = "__keyspace@" + database + "__:????????-????-????-????-????????????";
+        this.keyspacePattern = pattern.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public synchronized void start()
+    {
+        if (running)
+            return;
+        running = true;
+        Thread thread = new Thread(this::superviseLoop, "Velobbity-StatusSubscription");
+        thread.setDaemon(true);
+        this.subscriptionThread = thread;
+        thread.start();
+    }
+
+    public synchronized void stop()
+    {
+        running = false;
+        PlayerStatusSubscriber current = this.subscriber;
+        if (current != null && current.isSubscribed()) {
+            try {
+                current.unsubscribe();
+            } catch (Exception ignored) {
+                //connection is going away regardless
+            }
+        }
+        if (subscriptionThread != null)
+            subscriptionThread.interrupt();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Hands a message to the worker pool, called from the redis socket thread so it must never block.
+     */
+    public void submit(byte[] message, Consumer<byte[]> handler)
+    {
+        received.increment();
+        workers.execute(() -> {
+            try {
+                handler.accept(message);
+                processed.increment();
+            } catch (Exception e) {
+                failed.increment();
+                logger.atLevel(Level.ERROR).log("Could not handle player status message: " + e.getMessage());
+            }
+        });
+        queueHighWater.accumulateAndGet(workers.getQueue().size(), Math::max);
+    }
+
+    //called once the subscription is confirmed, a healthy connection resets the backoff
+    public void onSubscribed()
+    {
+        backoffMillis = MIN_BACKOFF_MILLIS;
+        logger.atLevel(Level.INFO).log("Subscribed to " + channel + ".");
+    }
+
+    public int queueDepth()
+    {
+        return workers.getQueue().size();
+    }
+
+    public int queueCapacity()
+    {
+        return queueCapacity;
+    }
+
+    public boolean isSubscribed()
+    {
+        PlayerStatusSubscriber current = this.subscriber;
+        return current != null && current.isSubscribed();
+    }
+
+    private void superviseLoop()
+    {
+        while (running) {
+            PlayerStatusSubscriber current = new PlayerStatusSubscriber(this, keyspacePattern);
+            this.subscriber = current;
+            try (Jedis jedis = jedisPool.getResource()) {
+                logger.atLevel(Level.INFO).log("Subscribing to player status updates.");
+                //blocks until unsubscribed or the connection fails
+                jedis.subscribe(current, channelBytes);
+            } catch (Exception e) {
+                if (running)
+                    logger.atLevel(Level.WARN).log("Player status subscription lost: " + e.getMessage());
+            }
+            if (!running)
+                break;
+            reconnects.incrementAndGet();
+            long wait = backoffMillis;
+            backoffMillis = Math.min(MAX_BACKOFF_MILLIS, wait * 2);
+            logger.atLevel(Level.INFO).log("Resubscribing to player status updates in " + wait + "ms.");
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+}
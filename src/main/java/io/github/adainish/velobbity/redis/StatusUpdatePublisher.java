@@ -0,0 +1,99 @@
+package io.github.adainish.velobbity.redis;
+
+import io.github.adainish.velobbity.metrics.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches player status updates into {@link StatusFrame}s and publishes each frame with a single PUBLISH.
+ * A frame goes out when it reaches the batch size or when the linger time has passed, whichever is first.
+ */
+public class StatusUpdatePublisher
+{
+    //how long shutdown waits for frames already handed to the flusher
+    private static final long SHUTDOWN_WAIT_MILLIS = 2000;
+
+    private final JedisPool jedisPool;
+    private final byte[] channel;
+    private final Logger logger;
+    private final int maxBatch;
+    private final StatusFrame.Writer writer = new StatusFrame.Writer(1024);
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(PlayerStatusLookup.namedDaemonThreads("Velobbity-StatusPublisher"));
+
+    public final Histogram publishLatency = new Histogram();
+
+    public StatusUpdatePublisher(JedisPool jedisPool, String channel, Logger logger, int maxBatch, long lingerMillis)
+    {
+        this.jedisPool = jedisPool;
+        this.channel = channel.getBytes(StandardCharsets.UTF_8);
+        this.logger = logger;
+        this.maxBatch = Math.min(maxBatch, StatusFrame.MAX_RECORDS);
+        flusher.scheduleWithFixedDelay(this::flush, lingerMillis, lingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void publish(UUID playerId, PlayerStatus status, String origin)
+    {
+        byte[] frame = null;
+        synchronized (writer) {
+            writer.add(playerId, status, System.currentTimeMillis(), origin);
+            if (writer.count() >= maxBatch) {
+                frame = writer.toByteArray();
+                writer.reset();
+            }
+        }
+        if (frame != null) {
+            byte[] full = frame;
+            try {
+                flusher.execute(() -> send(full));
+            } catch (RejectedExecutionException e) {
+                //shutting down, the pool is still open until shutdown returns
+                send(full);
+            }
+        }
+    }
+
+    public void flush()
+    {
+        byte[] frame;
+        synchronized (writer) {
+            if (writer.count() == 0)
+                return;
+            frame = writer.toByteArray();
+            writer.reset();
+        }
+        send(frame);
+    }
+
+    private void send(byte[] frame)
+    {
+        long start = System.nanoTime();
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.publish(channel, frame);
+            publishLatency.recordSince(start);
+        } catch (Exception e) {
+            logger.atLevel(Level.WARN).log("Could not publish player status updates: " + e.getMessage());
+        }
+    }
+
+    public void shutdown()
+    {
+        flusher.shutdown();
+        try {
+            //full frames queued before the shutdown go out first, in order
+            if (!flusher.awaitTermination(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS))
+                logger.atLevel(Level.WARN).log("Status publisher did not finish within " + SHUTDOWN_WAIT_MILLIS + " ms, publishing what is left anyway.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
@@ -0,0 +1,129 @@
+package io.github.adainish.velobbity.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps each player's transfer intent (where they are ultimately headed) in a redis hash with a TTL,
+ * so it survives a proxy restart or the player reconnecting through another proxy.
+ * Writes are queued per player, so only the latest intent is written, and flushed in one pipeline
+ * from a background thread; nothing on the login path waits on them.
+ */
+public class TransferIntentStore
+{
+    public static class TransferIntent
+    {
+        public final String desiredServer;
+        public final String origin;
+        public final long updatedAt;
+
+        public TransferIntent(String desiredServer, String origin, long updatedAt)
+        {
+            this.desiredServer = desiredServer;
+            this.origin = origin;
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    //a queued clear, written as a DEL
+    private static final TransferIntent CLEARED = new TransferIntent(null, null, 0);
+
+    private final JedisPool jedisPool;
+    private final Logger logger;
+    private final long ttlSeconds;
+    private final Map<UUID, TransferIntent> pendingWrites = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(PlayerStatusLookup.namedDaemonThreads("Velobbity-IntentStore"));
+
+    public TransferIntentStore(JedisPool jedisPool, Logger logger, long ttlSeconds, long flushIntervalMillis)
+    {
+        this.jedisPool = jedisPool;
+        this.logger = logger;
+        this.ttlSeconds = ttlSeconds;
+        executor.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static String key(UUID uuid)
+    {
+        return "velobbity:intent:" + uuid;
+    }
+
+    public void write(UUID uuid, String desiredServer, String origin)
+    {
+        pendingWrites.put(uuid, new TransferIntent(desiredServer, origin != null ? origin : "", System.currentTimeMillis()));
+    }
+
+    public void clear(UUID uuid)
+    {
+        pendingWrites.put(uuid, CLEARED);
+    }
+
+    /**
+     * @return the stored intent, or null if there is none. A write still queued locally wins over redis.
+     */
+    public CompletableFuture<TransferIntent> read(UUID uuid)
+    {
+        TransferIntent pending = pendingWrites.get(uuid);
+        if (pending != null)
+            return CompletableFuture.completedFuture(pending == CLEARED ? null : pending);
+        return CompletableFuture.supplyAsync(() -> {
+            try (Jedis jedis = jedisPool.getResource()) {
+                Map<String, String> fields = jedis.hgetAll(key(uuid));
+                if (fields == null || fields.isEmpty() || fields.getOrDefault("desiredServer", "").isEmpty())
+                    return null;
+                return new TransferIntent(fields.get("desiredServer"), fields.getOrDefault("origin", ""),
+                        Long.parseLong(fields.getOrDefault("updatedAt", "0")));
+            }
+        }, executor);
+    }
+
+    public void flush()
+    {
+        if (pendingWrites.isEmpty())
+            return;
+        List<Map.Entry<UUID, TransferIntent>> batch = new ArrayList<>(pendingWrites.size());
+        Iterator<Map.Entry<UUID, TransferIntent>> iterator = pendingWrites.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, TransferIntent> entry = iterator.next();
+            //only take the entry if it was not replaced meanwhile, a newer write waits for the next flush
+            if (pendingWrites.remove(entry.getKey(), entry.getValue()))
+                batch.add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+        try (Jedis jedis = jedisPool.getResource(); Pipeline pipeline = jedis.pipelined()) {
+            for (Map.Entry<UUID, TransferIntent> entry : batch) {
+                String key = key(entry.getKey());
+                TransferIntent intent = entry.getValue();
+                if (intent == CLEARED) {
+                    pipeline.del(key);
+                    continue;
+                }
+                pipeline.hset(key, Map.of("desiredServer", intent.desiredServer, "origin", intent.origin, "updatedAt", Long.toString(intent.updatedAt)));
+                pipeline.expire(key, ttlSeconds);
+            }
+            pipeline.sync();
+        } catch (Exception e) {
+            //put back what has not been superseded, the next flush tries again
+            batch.forEach(entry -> pendingWrites.putIfAbsent(entry.getKey(), entry.getValue()));
+            logger.atLevel(Level.WARN).log("Could not store transfer intents: " + e.getMessage());
+        }
+    }
+
+    public void shutdown()
+    {
+        executor.shutdown();
+        flush();
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.adainish.velobbity.transfer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Which origin to destination routes may skip the lobby hop when the player's data is already safe.
+ * Rules are written {@code origin->destination}, either side may be {@code *}. A route has to match an allow rule
+ * and no deny rule, so a deny always wins.
+ */
+public final class DirectTransferRules
+{
+    public static final DirectTransferRules NONE = new DirectTransferRules(List.of(), List.of());
+
+    private static class Route
+    {
+        final String origin;
+        final String destination;
+
+        Route(String origin, String destination)
+        {
+            this.origin = origin;
+            this.destination = destination;
+        }
+
+        boolean matches(String from, String to)
+        {
+            return (origin.equals("*") || origin.equals(from)) && (destination.equals("*") || destination.equals(to));
+        }
+    }
+
+    private final List<Route> allow;
+    private final List<Route> deny;
+
+    private DirectTransferRules(List<Route> allow, List<Route> deny)
+    {
+        this.allow = allow;
+        this.deny = deny;
+    }
+
+    /**
+     * @throws IllegalArgumentException for a rule that is not of the form origin->destination
+     */
+    public static DirectTransferRules parse(Collection<String> allow, Collection<String> deny)
+    {
+        return new DirectTransferRules(routes(allow), routes(deny));
+    }
+
+    private static List<Route> routes(Collection<String> rules)
+    {
+        List<Route> routes = new ArrayList<>(rules.size());
+        for (String rule : rules) {
+            int arrow = rule.indexOf("->");
+            if (arrow <= 0 || arrow + 2 >= rule.length())
+                throw new IllegalArgumentException("Direct transfer rule is not origin->destination: " + rule);
+            routes.add(new Route(rule.substring(0, arrow).trim(), rule.substring(arrow + 2).trim()));
+        }
+        return List.copyOf(routes);
+    }
+
+    public boolean allows(String origin, String destination)
+    {
+        if (origin == null || destination == null)
+            return false;
+        for (Route route : deny) {
+            if (route.matches(origin, destination))
+                return false;
+        }
+        for (Route route : allow) {
+            if (route.matches(origin, destination))
+                return true;
+        }
+        return false;
+    }
+
+    public boolean isEmpty()
+    {
+        return allow.isEmpty();
+    }
+}
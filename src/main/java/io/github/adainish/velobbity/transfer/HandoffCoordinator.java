@@ -0,0 +1,81 @@
+package io.github.adainish.velobbity.transfer;
+
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.scheduler.ScheduledTask;
+import io.github.adainish.velobbity.Velobbbity;
+import io.github.adainish.velobbity.data.TransferState;
+import io.github.adainish.velobbity.data.VelobbityPlayer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands a player in a lobby off to their desired server as soon as their data sync is reported safe,
+ * instead of after a fixed delay. A player always stays in the lobby for at least the minimum dwell,
+ * and is released after the handoff timeout even if the safe signal never arrives. Without redis there is
+ * no safe signal at all, so the shorter no-redis timeout is all that moves players along.
+ */
+public class HandoffCoordinator
+{
+    private final Velobbbity plugin;
+    private final ProxyServer server;
+    //keyed by the session itself, there is one per player and it needs no UUID built to look up
+    private final Map<VelobbityPlayer, ScheduledTask> pendingTimeouts = new ConcurrentHashMap<>();
+    public volatile long minimumDwellMillis = 500;
+    public volatile long handoffTimeoutMillis = TimeUnit.SECONDS.toMillis(15);
+    public volatile long noRedisHandoffTimeoutMillis = TimeUnit.SECONDS.toMillis(2);
+
+    public HandoffCoordinator(Velobbbity plugin, ProxyServer server)
+    {
+        this.plugin = plugin;
+        this.server = server;
+    }
+
+    /**
+     * Called once a transferring player has landed in a lobby.
+     * The player's lobby arrival time must be set before they are moved to {@link TransferState#SYNCING}.
+     */
+    public void arrived(VelobbityPlayer player)
+    {
+        ScheduledTask timeout = server.getScheduler()
+                .buildTask(plugin, () -> release(player))
+                .delay(plugin.jedisPool != null ? handoffTimeoutMillis : noRedisHandoffTimeoutMillis, TimeUnit.MILLISECONDS)
+                .schedule();
+        ScheduledTask previous = pendingTimeouts.put(player, timeout);
+        if (previous != null)
+            previous.cancel();
+        //the safe signal beat the player to the lobby
+        if (player.getTransferState() == TransferState.SAFE)
+            signalSafe(player);
+    }
+
+    /**
+     * Called when a player in a lobby is reported safe, releases them once the minimum dwell has passed.
+     */
+    public void signalSafe(VelobbityPlayer player)
+    {
+        long remaining = minimumDwellMillis - (System.currentTimeMillis() - player.lobbyArrivalMillis);
+        if (remaining <= 0) {
+            release(player);
+            return;
+        }
+        server.getScheduler()
+                .buildTask(plugin, () -> release(player))
+                .delay(remaining, TimeUnit.MILLISECONDS)
+                .schedule();
+    }
+
+    private void release(VelobbityPlayer player)
+    {
+        if (plugin.handOff(player) || player.getTransferState() != TransferState.SYNCING)
+            forget(player);
+    }
+
+    public void forget(VelobbityPlayer player)
+    {
+        ScheduledTask timeout = pendingTimeouts.remove(player);
+        if (timeout != null)
+            timeout.cancel();
+    }
+}
@@ -0,0 +1,178 @@
+package io.github.adainish.velobbity.transfer;
+
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.scheduler.ScheduledTask;
+import io.github.adainish.velobbity.Velobbbity;
+import io.github.adainish.velobbity.data.TransferState;
+import io.github.adainish.velobbity.data.VelobbityPlayer;
+import io.github.adainish.velobbity.lobby.LobbyOccupancy;
+import io.github.adainish.velobbity.lobby.RebalancePlanner;
+import us.ajg0702.queue.api.players.AdaptedPlayer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves everyone off a lobby that is being drained or has failed. The players are planned as one batch by
+ * {@link RebalancePlanner} and then connected in paced waves, each move also waits for an admission token of its
+ * target lobby, so the lobbies taking them in see a steady stream instead of a stampede.
+ * Moves not made yet stay counted on their target across occupancy snapshots, and a move whose target
+ * filled up, failed or started draining in the meantime is planned again.
+ */
+public class LobbyRebalancer
+{
+    private static class Evacuation
+    {
+        final String source;
+        final ConcurrentLinkedQueue<RebalancePlanner.Assignment> remaining;
+        volatile ScheduledTask task;
+        volatile boolean done;
+
+        Evacuation(String source, List<RebalancePlanner.Assignment> assignments)
+        {
+            this.source = source;
+            this.remaining = new ConcurrentLinkedQueue<>(assignments);
+        }
+    }
+
+    private final Velobbbity plugin;
+    private final ProxyServer server;
+    private final Map<String, Evacuation> running = new ConcurrentHashMap<>();
+    public volatile int waveSize = 20;
+    public volatile long waveMillis = 1000;
+
+    public LobbyRebalancer(Velobbbity plugin, ProxyServer server)
+    {
+        this.plugin = plugin;
+        this.server = server;
+    }
+
+    /**
+     * Plans and starts moving every player on a lobby to the other lobbies, replacing a running evacuation of it.
+     * @return the plan, players without a place stay where they are
+     */
+    public RebalancePlanner.Plan evacuate(String serverName)
+    {
+        cancel(serverName);
+        List<UUID> displaced = new ArrayList<>();
+        server.getServer(serverName).ifPresent(registeredServer -> {
+            for (Player player : registeredServer.getPlayersConnected())
+                displaced.add(player.getUniqueId());
+        });
+        //a fresh snapshot, so the source is already out of the index and the targets' counts are current
+        plugin.refreshLobbyOccupancy();
+        RebalancePlanner.Plan plan = RebalancePlanner.plan(displaced, plugin.lobbySelector.getLobbies(), serverName);
+        Evacuation evacuation = new Evacuation(serverName, plan.assignments);
+        for (RebalancePlanner.Assignment assignment : plan.assignments)
+            plugin.lobbySelector.addPendingMoves(assignment.serverName, 1);
+        running.put(serverName, evacuation);
+        if (!plan.assignments.isEmpty()) {
+            evacuation.task = server.getScheduler()
+                    .buildTask(plugin, () -> wave(evacuation))
+                    .repeat(waveMillis, TimeUnit.MILLISECONDS)
+                    .schedule();
+            //the first wave may have emptied it before the task was stored
+            if (evacuation.done)
+                evacuation.task.cancel();
+        } else {
+            running.remove(serverName, evacuation);
+        }
+        return plan;
+    }
+
+    public void cancel(String serverName)
+    {
+        Evacuation evacuation = running.remove(serverName);
+        if (evacuation == null)
+            return;
+        evacuation.done = true;
+        if (evacuation.task != null)
+            evacuation.task.cancel();
+        release(evacuation);
+    }
+
+    public int pendingMoves()
+    {
+        int pending = 0;
+        for (Evacuation evacuation : running.values())
+            pending += evacuation.remaining.size();
+        return pending;
+    }
+
+    private void wave(Evacuation evacuation)
+    {
+        if (evacuation.done)
+            return;
+        List<RebalancePlanner.Assignment> deferred = new ArrayList<>();
+        List<UUID> replan = new ArrayList<>();
+        int moved = 0;
+        RebalancePlanner.Assignment assignment;
+        while (moved < waveSize && (assignment = evacuation.remaining.poll()) != null) {
+            AdaptedPlayer player = plugin.platformMethods.getPlayer(assignment.uuid);
+            VelobbityPlayer velobbityPlayer = plugin.sessions.get(assignment.uuid);
+            //gone, already moved on by something else, or on the way to their desired server and leaving anyway
+            if (player == null || !evacuation.source.equals(player.getServerName())
+                    || (velobbityPlayer != null && velobbityPlayer.getTransferState() == TransferState.TRANSFERRING)) {
+                plugin.lobbySelector.addPendingMoves(assignment.serverName, -1);
+                continue;
+            }
+            if (!isViable(assignment.serverName)) {
+                plugin.lobbySelector.addPendingMoves(assignment.serverName, -1);
+                replan.add(assignment.uuid);
+                continue;
+            }
+            if (!plugin.admissionController.tryAcquire(assignment.serverName)) {
+                deferred.add(assignment);
+                continue;
+            }
+            player.connect(plugin.platformMethods.getServer(assignment.serverName));
+            //from here on the target's own player count has them
+            plugin.lobbySelector.addPendingMoves(assignment.serverName, -1);
+            plugin.metrics.rebalanceMoves.increment();
+            moved++;
+        }
+        evacuation.remaining.addAll(deferred);
+        if (!replan.isEmpty()) {
+            //players without a place now stay where they are, like those of the first plan
+            RebalancePlanner.Plan plan = RebalancePlanner.plan(replan, plugin.lobbySelector.getLobbies(), evacuation.source);
+            for (RebalancePlanner.Assignment planned : plan.assignments)
+                plugin.lobbySelector.addPendingMoves(planned.serverName, 1);
+            evacuation.remaining.addAll(plan.assignments);
+        }
+        //cancelled while this wave ran, what it put back is not going to be moved
+        if (evacuation.done) {
+            release(evacuation);
+            return;
+        }
+        if (evacuation.remaining.isEmpty()) {
+            evacuation.done = true;
+            running.remove(evacuation.source, evacuation);
+            ScheduledTask task = evacuation.task;
+            if (task != null)
+                task.cancel();
+        }
+    }
+
+    //whether a planned target still takes players: in the index, healthy, not draining and not filled up since
+    private boolean isViable(String serverName)
+    {
+        LobbyOccupancy target = plugin.lobbySelector.find(serverName);
+        //the move being made is already counted in the target's load
+        return target != null && target.online && target.load() <= target.maxPlayers
+                && plugin.lobbyHealth.isAvailable(serverName) && !plugin.drainingLobbies.contains(serverName);
+    }
+
+    //gives up the moves of an evacuation that will not make them
+    private void release(Evacuation evacuation)
+    {
+        RebalancePlanner.Assignment assignment;
+        while ((assignment = evacuation.remaining.poll()) != null)
+            plugin.lobbySelector.addPendingMoves(assignment.serverName, -1);
+    }
+}
@@ -0,0 +1,184 @@
+package io.github.adainish.velobbity.transfer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One shared retry queue for players that could not be placed in a lobby.
+ * Pending redirects sit in a hashed timer wheel that is advanced by a single repeating task,
+ * so thousands of waiting players cost one timer instead of one each.
+ * Retries back off exponentially with jitter and give up after a maximum number of attempts,
+ * and {@link #drain()} retries everyone in one pass as soon as lobby capacity frees up; a drain that
+ * fails a player counts as one of their attempts and is not repeated for them within the base delay.
+ */
+public class RedirectRetryScheduler
+{
+    public interface RedirectAttempt
+    {
+        //true once the player no longer needs a retry, either placed or gone
+        boolean attempt(UUID uuid, String desiredServer);
+    }
+
+    public interface RedirectGiveUp
+    {
+        void giveUp(UUID uuid, String desiredServer);
+    }
+
+    public static class PendingRedirect
+    {
+        public final UUID uuid;
+        public final String desiredServer;
+        public final long firstQueuedAt = System.currentTimeMillis();
+        public int attempts;
+        private long deadlineTick;
+        //queued after a failed placement, which counts as the first try
+        private volatile long lastAttemptAt = firstQueuedAt;
+        private volatile boolean cancelled;
+
+        PendingRedirect(UUID uuid, String desiredServer)
+        {
+            this.uuid = uuid;
+            this.desiredServer = desiredServer;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<PendingRedirect>[] wheel;
+    private final int mask;
+    private final Map<UUID, PendingRedirect> pending = new ConcurrentHashMap<>();
+    private final RedirectAttempt redirectAttempt;
+    private final RedirectGiveUp redirectGiveUp;
+    public final long tickMillis;
+    public volatile long baseDelayMillis = 2000;
+    public volatile long maxDelayMillis = 30000;
+    public volatile int maxAttempts = 10;
+    private volatile long currentTick;
+
+    @SuppressWarnings("unchecked")
+    public RedirectRetryScheduler(int wheelSize, long tickMillis, RedirectAttempt redirectAttempt, RedirectGiveUp redirectGiveUp)
+    {
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.wheel = new ConcurrentLinkedQueue[size];
+        for (int i = 0; i < size; i++)
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        this.mask = size - 1;
+        this.tickMillis = tickMillis;
+        this.redirectAttempt = redirectAttempt;
+        this.redirectGiveUp = redirectGiveUp;
+    }
+
+    /**
+     * Queues a retry for a player, a player who is already waiting keeps their place.
+     */
+    public void schedule(UUID uuid, String desiredServer)
+    {
+        PendingRedirect redirect = new PendingRedirect(uuid, desiredServer);
+        if (pending.putIfAbsent(uuid, redirect) != null)
+            return;
+        enqueue(redirect, backoffMillis(0));
+    }
+
+    public void cancel(UUID uuid)
+    {
+        PendingRedirect redirect = pending.remove(uuid);
+        if (redirect != null)
+            redirect.cancelled = true;
+    }
+
+    public int pendingCount()
+    {
+        return pending.size();
+    }
+
+    /**
+     * Advances the wheel by one tick and retries every redirect that came due.
+     */
+    public synchronized void tick()
+    {
+        long tick = ++currentTick;
+        ConcurrentLinkedQueue<PendingRedirect> bucket = wheel[(int) (tick & mask)];
+        List<PendingRedirect> due = new ArrayList<>();
+        List<PendingRedirect> later = new ArrayList<>();
+        PendingRedirect redirect;
+        while ((redirect = bucket.poll()) != null) {
+            if (redirect.cancelled)
+                continue;
+            if (redirect.deadlineTick <= tick)
+                due.add(redirect);
+            else
+                later.add(redirect);
+        }
+        bucket.addAll(later);
+        for (PendingRedirect dueRedirect : due)
+            retry(dueRedirect);
+    }
+
+    /**
+     * Retries every waiting player in one pass, oldest first, stopping at the first one that
+     * still cannot be placed. Everyone after that keeps their current schedule.
+     */
+    public synchronized void drain()
+    {
+        if (pending.isEmpty())
+            return;
+        List<PendingRedirect> waiting = new ArrayList<>(pending.values());
+        waiting.sort(Comparator.comparingLong(pendingRedirect -> pendingRedirect.firstQueuedAt));
+        long now = System.currentTimeMillis();
+        for (PendingRedirect redirect : waiting) {
+            //tried a moment ago, by a tick or an earlier drain
+            if (redirect.cancelled || now - redirect.lastAttemptAt < baseDelayMillis)
+                continue;
+            redirect.lastAttemptAt = now;
+            if (!redirectAttempt.attempt(redirect.uuid, redirect.desiredServer)) {
+                //their place in the wheel stays as it is, the failed try still counts
+                if (++redirect.attempts >= maxAttempts)
+                    giveUp(redirect);
+                break;
+            }
+            redirect.cancelled = true;
+            pending.remove(redirect.uuid, redirect);
+        }
+    }
+
+    private void retry(PendingRedirect redirect)
+    {
+        redirect.lastAttemptAt = System.currentTimeMillis();
+        if (redirectAttempt.attempt(redirect.uuid, redirect.desiredServer)) {
+            pending.remove(redirect.uuid, redirect);
+            return;
+        }
+        redirect.attempts++;
+        if (redirect.attempts >= maxAttempts) {
+            giveUp(redirect);
+            return;
+        }
+        enqueue(redirect, backoffMillis(redirect.attempts));
+    }
+
+    private void giveUp(PendingRedirect redirect)
+    {
+        redirect.cancelled = true;
+        pending.remove(redirect.uuid, redirect);
+        redirectGiveUp.giveUp(redirect.uuid, redirect.desiredServer);
+    }
+
+    private void enqueue(PendingRedirect redirect, long delayMillis)
+    {
+        long ticks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        redirect.deadlineTick = currentTick + ticks;
+        wheel[(int) (redirect.deadlineTick & mask)].add(redirect);
+    }
+
+    //exponential backoff with equal jitter, half fixed and half random
+    private long backoffMillis(int attempt)
+    {
+        long delay = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt, 20));
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+}
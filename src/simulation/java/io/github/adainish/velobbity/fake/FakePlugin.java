@@ -0,0 +1,30 @@
+package io.github.adainish.velobbity.fake;
+
+import com.velocitypowered.api.proxy.ProxyServer;
+import io.github.adainish.velobbity.Velobbbity;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+/**
+ * Creates a plugin instance outside of a running proxy, enough for the parts of the plugin
+ * that reach for {@link Velobbbity#instance}, such as configuration loading and status handling.
+ */
+public final class FakePlugin
+{
+    private FakePlugin()
+    {
+    }
+
+    public static Velobbbity install()
+    {
+        return install(Fakes.of(ProxyServer.class, Map.of()));
+    }
+
+    public static Velobbbity install(ProxyServer server)
+    {
+        Velobbbity plugin = new Velobbbity(server, LoggerFactory.getLogger("Velobbbity"));
+        Velobbbity.instance = plugin;
+        return plugin;
+    }
+}
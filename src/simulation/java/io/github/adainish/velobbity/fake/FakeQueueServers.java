@@ -0,0 +1,73 @@
+package io.github.adainish.velobbity.fake;
+
+import us.ajg0702.queue.api.players.AdaptedPlayer;
+import us.ajg0702.queue.api.queues.QueueManager;
+import us.ajg0702.queue.api.queues.QueueServer;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An AjQueue {@link QueueManager} over in-memory {@link QueueServer}s, each of which can be taken offline
+ * or closed to new players. Every addToQueue call is counted and handed to the {@link QueueHandler}.
+ */
+public class FakeQueueServers
+{
+    public interface QueueHandler
+    {
+        boolean queue(AdaptedPlayer player, String serverName);
+    }
+
+    public static class Server
+    {
+        public final String name;
+        public volatile boolean online = true;
+        public volatile boolean joinable = true;
+        public final QueueServer queueServer;
+
+        Server(String name)
+        {
+            this.name = name;
+            this.queueServer = Fakes.of(QueueServer.class, Map.of(
+                    "getName", args -> this.name,
+                    "isOnline", args -> online,
+                    "isJoinable", args -> online && joinable));
+        }
+    }
+
+    private final Map<String, Server> servers = new ConcurrentHashMap<>();
+    public final LongAdder queued = new LongAdder();
+    //queues nobody by default
+    public volatile QueueHandler queueHandler = (player, serverName) -> true;
+    public final QueueManager queueManager = Fakes.of(QueueManager.class, Map.of(
+            "findServer", args -> {
+                Server server = servers.get((String) args[0]);
+                return server != null ? server.queueServer : null;
+            },
+            "addToQueue", args -> {
+                queued.increment();
+                String serverName = args[1] instanceof QueueServer queueServer ? queueServer.getName() : (String) args[1];
+                return queueHandler.queue((AdaptedPlayer) args[0], serverName);
+            }));
+
+    public Server add(String name)
+    {
+        return servers.computeIfAbsent(name, Server::new);
+    }
+
+    public Server get(String name)
+    {
+        return servers.get(name);
+    }
+
+    public static AdaptedPlayer player(UUID uuid, String name, String serverName)
+    {
+        return Fakes.of(AdaptedPlayer.class, Map.of(
+                "getUniqueId", args -> uuid,
+                "getName", args -> name,
+                "getServerName", args -> serverName,
+                "isConnected", args -> true));
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.adainish.velobbity.fake;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/**
+ * Builds lightweight stand-ins for AjQueue and Velocity interfaces out of dynamic proxies.
+ * Only the methods a fake answers need to be given, so the fakes keep working when the real
+ * interfaces grow new methods. Anything else returns the type's default value.
+ */
+public final class Fakes
+{
+    public interface Answer
+    {
+        Object answer(Object[] args);
+    }
+
+    private Fakes()
+    {
+    }
+
+    public static <T> T of(Class<T> type, Map<String, Answer> answers)
+    {
+        InvocationHandler handler = (proxy, method, args) -> {
+            Answer answer = answers.get(method.getName());
+            if (answer != null)
+                return answer.answer(args);
+            return objectMethod(proxy, method, args);
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object objectMethod(Object proxy, Method method, Object[] args)
+    {
+        switch (method.getName()) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "Fake" + proxy.getClass().getInterfaces()[0].getSimpleName();
+            default:
+                return defaultValue(method.getReturnType());
+        }
+    }
+
+    private static Object defaultValue(Class<?> type)
+    {
+        if (!type.isPrimitive() || type == void.class)
+            return null;
+        if (type == boolean.class)
+            return false;
+        if (type == char.class)
+            return '\0';
+        if (type == long.class)
+            return 0L;
+        if (type == float.class)
+            return 0f;
+        if (type == double.class)
+            return 0d;
+        if (type == byte.class)
+            return (byte) 0;
+        if (type == short.class)
+            return (short) 0;
+        return 0;
+    }
+}
@@ -0,0 +1,407 @@
+package io.github.adainish.velobbity.simulation;
+
+import com.google.gson.JsonObject;
+import com.velocitypowered.api.event.connection.PostLoginEvent;
+import com.velocitypowered.api.event.player.KickedFromServerEvent;
+import com.velocitypowered.api.event.player.ServerConnectedEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import io.github.adainish.velobbity.Velobbbity;
+import io.github.adainish.velobbity.configuration.GSON;
+import io.github.adainish.velobbity.data.LobbyServer;
+import io.github.adainish.velobbity.data.TransferState;
+import io.github.adainish.velobbity.data.VelobbityPlayer;
+import io.github.adainish.velobbity.fake.FakePlugin;
+import io.github.adainish.velobbity.fake.FakeQueueServers;
+import io.github.adainish.velobbity.fake.Fakes;
+import io.github.adainish.velobbity.metrics.Histogram;
+import io.github.adainish.velobbity.redis.PlayerStatus;
+import io.github.adainish.velobbity.redis.PrepareTransferNotice;
+import io.github.adainish.velobbity.redis.StatusFrame;
+import net.kyori.adventure.text.Component;
+import us.ajg0702.queue.api.PlatformMethods;
+import us.ajg0702.queue.api.events.PreQueueEvent;
+import us.ajg0702.queue.api.players.AdaptedPlayer;
+import us.ajg0702.queue.api.server.AdaptedServer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Runs the plugin headless against synthetic players and reports how long their transfers take.
+ * <p>
+ * Every player logs in on an origin server and queues for a target server. The plugin sees the same events and calls
+ * as on a live proxy: PostLoginEvent, ServerConnectedEvent, AjQueue's PreQueueEvent and status messages over redis.
+ * AjQueue and Velocity are fakes, redis is a {@link LocalRedis} on the loopback interface, so nothing leaves the box.
+ * Players queue exactly once, so a player whose queue attempt is cancelled depends on the plugin alone to move on.
+ * <p>
+ * Usage: {@code ./gradlew simulate --args="--scenario=login-storm --players=500"}, options are
+ * --scenario, --players, --lobbies, --capacity, --arrival-seconds, --timeout-seconds, --seed, --policy and --no-redis.
+ * The run exits with status 1 if any player did not complete their transfer or was left with one unfinished.
+ */
+public class LoadSimulator
+{
+    private static final String ORIGIN = "origin";
+    private static final String TARGET = "target";
+    private static final long QUEUE_DELAY_MILLIS = 50;
+
+    private class SimulatedPlayer
+    {
+        final UUID uuid;
+        final Player player;
+        final AdaptedPlayer adaptedPlayer;
+        final long arrivalMillis;
+        final long syncMillis;
+        final long connectMillis;
+        volatile String server;
+        volatile long queuedAtNanos;
+        volatile boolean done;
+
+        SimulatedPlayer(int index, Random random)
+        {
+            this.uuid = new UUID(random.nextLong(), random.nextLong());
+            String name = "player" + index;
+            this.arrivalMillis = (long) (random.nextDouble() * scenario.arrivalWindowMillis(arrivalSeconds * 1000L));
+            this.syncMillis = scenario.minSyncMillis + (long) (random.nextDouble() * (scenario.maxSyncMillis - scenario.minSyncMillis));
+            this.connectMillis = 20 + random.nextInt(60);
+            this.player = SimulatedProxy.player(uuid, name);
+            this.adaptedPlayer = Fakes.of(AdaptedPlayer.class, Map.of(
+                    "getUniqueId", args -> uuid,
+                    "getName", args -> name,
+                    "getServerName", args -> server,
+                    "isConnected", args -> true,
+                    "connect", args -> {
+                        connect(this, ((AdaptedServer) args[0]).getName());
+                        return null;
+                    },
+                    "sendActionBar", args -> {
+                        actionBars.increment();
+                        return null;
+                    },
+                    "sendMessage", args -> null));
+        }
+    }
+
+    private final Scenario scenario;
+    private final int playerCount;
+    private final int lobbyCount;
+    private final int lobbyCapacity;
+    private final int arrivalSeconds;
+    private final int timeoutSeconds;
+    private final long seed;
+    private final String policy;
+    private final boolean useRedis;
+
+    private final SimulatedProxy proxy = new SimulatedProxy(4);
+    private final FakeQueueServers queueServers = new FakeQueueServers();
+    private final Map<UUID, SimulatedPlayer> players = new ConcurrentHashMap<>();
+    private final Map<String, AdaptedServer> adaptedServers = new ConcurrentHashMap<>();
+    private final Histogram transferLatency = new Histogram();
+    private final LongAdder failedConnects = new LongAdder();
+    private final LongAdder cancelledQueues = new LongAdder();
+    private final LongAdder actionBars = new LongAdder();
+    private final LongAdder prepareNotices = new LongAdder();
+    private final LongAdder malformedNotices = new LongAdder();
+    private final AtomicLong lastCompletionNanos = new AtomicLong();
+    private CountDownLatch completed;
+    private LocalRedis redis;
+    private Velobbbity plugin;
+    private final StatusFrame.Writer frameWriter = new StatusFrame.Writer(64);
+
+    public LoadSimulator(Map<String, String> options)
+    {
+        this.scenario = Scenario.fromString(options.getOrDefault("scenario", "login-storm"));
+        this.playerCount = Integer.parseInt(options.getOrDefault("players", "500"));
+        this.lobbyCount = Integer.parseInt(options.getOrDefault("lobbies", "3"));
+        this.lobbyCapacity = Integer.parseInt(options.getOrDefault("capacity", "100"));
+        this.arrivalSeconds = Integer.parseInt(options.getOrDefault("arrival-seconds", "30"));
+        this.timeoutSeconds = Integer.parseInt(options.getOrDefault("timeout-seconds", "120"));
+        this.seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        this.policy = options.getOrDefault("policy", "LEAST_LOADED");
+        this.useRedis = !options.containsKey("no-redis");
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--"))
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            int equals = arg.indexOf('=');
+            options.put(equals < 0 ? arg.substring(2) : arg.substring(2, equals), equals < 0 ? "" : arg.substring(equals + 1));
+        }
+        boolean passed = new LoadSimulator(options).run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * @return whether every player completed their transfer and none was left with one under way
+     */
+    public boolean run() throws Exception
+    {
+        Path directory = Files.createTempDirectory("velobbity-simulation");
+        try {
+            setUp(directory);
+            List<SimulatedPlayer> arrivals = new ArrayList<>(playerCount);
+            Random random = new Random(seed);
+            for (int i = 0; i < playerCount; i++)
+                arrivals.add(new SimulatedPlayer(i, random));
+            completed = new CountDownLatch(playerCount);
+            long startNanos = System.nanoTime();
+            for (SimulatedPlayer simulatedPlayer : arrivals)
+                proxy.executor.schedule(() -> arrive(simulatedPlayer), simulatedPlayer.arrivalMillis, TimeUnit.MILLISECONDS);
+            if (scenario.lobbyOutage)
+                scheduleOutage("lobby1", arrivalSeconds * 1000L);
+            boolean finished = completed.await(arrivalSeconds + (long) timeoutSeconds, TimeUnit.SECONDS);
+            return report(startNanos, finished);
+        } finally {
+            if (plugin != null)
+                plugin.onProxyShutdown(new ProxyShutdownEvent());
+            proxy.shutdown();
+            if (redis != null)
+                redis.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                    Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private void setUp(Path directory) throws IOException
+    {
+        if (useRedis) {
+            redis = new LocalRedis(true);
+            //the origin server, told its players are about to leave
+            redis.subscribe(PrepareTransferNotice.CHANNEL, this::prepareTransfer);
+        }
+        plugin = FakePlugin.install(proxy.server);
+        plugin.directory = directory.toString();
+        List<LobbyServer> lobbies = new ArrayList<>();
+        for (int i = 1; i <= lobbyCount; i++) {
+            lobbies.add(new LobbyServer("lobby" + i, lobbyCapacity));
+            addServer("lobby" + i);
+        }
+        addServer(ORIGIN);
+        addServer(TARGET);
+        Files.writeString(directory.resolve("config.json"), GSON.PRETTY_MAIN_GSON().toJson(config(lobbies)));
+        plugin.setupConfig();
+        if (!plugin.canLoad)
+            throw new IllegalStateException("The plugin could not load its configuration");
+        queueServers.queueHandler = this::queue;
+        plugin.queueManager = queueServers.queueManager;
+        plugin.platformMethods = Fakes.of(PlatformMethods.class, Map.of(
+                "getPlayer", args -> {
+                    SimulatedPlayer simulatedPlayer = players.get((UUID) args[0]);
+                    return simulatedPlayer != null ? simulatedPlayer.adaptedPlayer : null;
+                },
+                "getServer", args -> adaptedServers.get((String) args[0])));
+        plugin.start();
+    }
+
+    private void addServer(String name)
+    {
+        proxy.register(name);
+        queueServers.add(name);
+        adaptedServers.put(name, Fakes.of(AdaptedServer.class, Map.of("getName", args -> name)));
+    }
+
+    private JsonObject config(List<LobbyServer> lobbies)
+    {
+        JsonObject root = new JsonObject();
+        JsonObject configuration = new JsonObject();
+        configuration.add("servers", plugin.toJSONElement(lobbies));
+        configuration.addProperty("selectionPolicy", policy);
+        configuration.addProperty("occupancySnapshotMillis", 250);
+        root.add("configuration", configuration);
+        JsonObject transfer = new JsonObject();
+        transfer.addProperty("minimumDwellMillis", 500);
+        transfer.addProperty("handoffTimeoutMillis", 15000);
+        transfer.addProperty("retryBaseMillis", 1000);
+        transfer.addProperty("retryMaxMillis", 10000);
+        transfer.addProperty("retryMaxAttempts", 20);
+        root.add("transfer", transfer);
+        if (useRedis) {
+            JsonObject redisSection = new JsonObject();
+            redisSection.addProperty("host", "127.0.0.1");
+            redisSection.addProperty("port", redis.port());
+            redisSection.addProperty("password", "");
+            redisSection.addProperty("database", 0);
+            redisSection.addProperty("statusTimeoutMillis", 250);
+            redisSection.addProperty("statusBatchWindowMillis", 2);
+            redisSection.addProperty("statusBatchSize", 64);
+            redisSection.addProperty("intentTtlSeconds", 600);
+            redisSection.addProperty("publishPrepareTransfer", true);
+            root.add("redis", redisSection);
+        }
+        JsonObject cluster = new JsonObject();
+        cluster.addProperty("enabled", false);
+        root.add("cluster", cluster);
+        JsonObject metrics = new JsonObject();
+        metrics.addProperty("enabled", false);
+        root.add("metrics", metrics);
+        return root;
+    }
+
+    private void arrive(SimulatedPlayer simulatedPlayer)
+    {
+        proxy.join(simulatedPlayer.player);
+        players.put(simulatedPlayer.uuid, simulatedPlayer);
+        plugin.onLogin(new PostLoginEvent(simulatedPlayer.player));
+        moveTo(simulatedPlayer, ORIGIN);
+        simulatedPlayer.queuedAtNanos = System.nanoTime();
+        queueServers.queueManager.addToQueue(simulatedPlayer.adaptedPlayer, TARGET);
+    }
+
+    //what AjQueue does on addToQueue: fire PreQueueEvent, then send the player on unless it was cancelled
+    private boolean queue(AdaptedPlayer adaptedPlayer, String serverName)
+    {
+        SimulatedPlayer simulatedPlayer = players.get(adaptedPlayer.getUniqueId());
+        if (simulatedPlayer == null || simulatedPlayer.done)
+            return false;
+        PreQueueEvent event = new PreQueueEvent(adaptedPlayer, queueServers.get(serverName).queueServer);
+        plugin.handlePreQueue(event);
+        if (event.isCancelled()) {
+            //nobody queues again by hand, the plugin has to pick the player up from here
+            cancelledQueues.increment();
+            return false;
+        }
+        proxy.executor.schedule(() -> connect(simulatedPlayer, serverName), QUEUE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private void connect(SimulatedPlayer simulatedPlayer, String serverName)
+    {
+        proxy.executor.schedule(() -> {
+            FakeQueueServers.Server server = queueServers.get(serverName);
+            if (server == null || !server.online) {
+                failedConnects.increment();
+                //the player stays where they were, as Velocity does when the backend refuses them
+                Component reason = Component.text("Server offline");
+                plugin.onKickedFromServer(new KickedFromServerEvent(simulatedPlayer.player, proxy.register(serverName), reason, true, KickedFromServerEvent.Notify.create(reason)));
+                return;
+            }
+            moveTo(simulatedPlayer, serverName);
+        }, simulatedPlayer.connectMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void moveTo(SimulatedPlayer simulatedPlayer, String serverName)
+    {
+        String from = simulatedPlayer.server;
+        RegisteredServer previous = proxy.move(simulatedPlayer.player, from, serverName);
+        simulatedPlayer.server = serverName;
+        plugin.serverJoin(new ServerConnectedEvent(simulatedPlayer.player, proxy.register(serverName), previous));
+        if (ORIGIN.equals(from) && serverName.startsWith("lobby"))
+            syncData(simulatedPlayer);
+        if (serverName.equals(TARGET) && !simulatedPlayer.done) {
+            simulatedPlayer.done = true;
+            transferLatency.recordSince(simulatedPlayer.queuedAtNanos);
+            lastCompletionNanos.accumulateAndGet(System.nanoTime(), Math::max);
+            completed.countDown();
+        }
+    }
+
+    //the origin server saves the player's data once they leave, and reports it safe when done
+    private void syncData(SimulatedPlayer simulatedPlayer)
+    {
+        if (!useRedis) {
+            proxy.executor.schedule(() -> plugin.redirect(simulatedPlayer.uuid), simulatedPlayer.syncMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+        publishStatus(simulatedPlayer.uuid, PlayerStatus.SYNCING);
+        proxy.executor.schedule(() -> publishStatus(simulatedPlayer.uuid, PlayerStatus.SAFE), simulatedPlayer.syncMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void publishStatus(UUID uuid, PlayerStatus status)
+    {
+        long now = System.currentTimeMillis();
+        redis.set(uuid.toString(), status.name + ":" + now);
+        byte[] frame;
+        synchronized (frameWriter) {
+            frameWriter.reset();
+            frameWriter.add(uuid, status, now, ORIGIN);
+            frame = frameWriter.toByteArray();
+        }
+        redis.publish("playerStatusUpdates", frame);
+    }
+
+    private void scheduleOutage(String lobby, long runMillis)
+    {
+        FakeQueueServers.Server server = queueServers.get(lobby);
+        proxy.executor.schedule(() -> {
+            server.online = false;
+            System.out.println("[" + lobby + " went down]");
+        }, runMillis / 3, TimeUnit.MILLISECONDS);
+        proxy.executor.schedule(() -> {
+            server.online = true;
+            System.out.println("[" + lobby + " came back]");
+        }, runMillis * 2 / 3, TimeUnit.MILLISECONDS);
+    }
+
+    private void prepareTransfer(byte[] message)
+    {
+        try {
+            PrepareTransferNotice notice = PrepareTransferNotice.decode(new String(message, StandardCharsets.UTF_8));
+            if (ORIGIN.equals(notice.origin) && players.containsKey(notice.uuid))
+                prepareNotices.increment();
+            else
+                malformedNotices.increment();
+        } catch (IOException | RuntimeException e) {
+            malformedNotices.increment();
+        }
+    }
+
+    private boolean report(long startNanos, boolean finished)
+    {
+        long done = transferLatency.count();
+        //reached the target, yet the plugin does not consider their transfer finished
+        long unfinished = 0;
+        for (SimulatedPlayer simulatedPlayer : players.values()) {
+            VelobbityPlayer session = plugin.sessions.get(simulatedPlayer.uuid);
+            if (simulatedPlayer.done && (session == null || session.getTransferState() != TransferState.DONE))
+                unfinished++;
+        }
+        double seconds = Math.max(1, lastCompletionNanos.get() - startNanos) / 1e9;
+        System.out.println();
+        System.out.printf(Locale.ROOT, "scenario=%s players=%d lobbies=%dx%d policy=%s redis=%s seed=%d%n",
+                scenario, playerCount, lobbyCount, lobbyCapacity, policy, useRedis ? "local" : "none", seed);
+        System.out.printf(Locale.ROOT, "completed %d/%d transfers%s, %.1f transfers/s over %.1fs%n",
+                done, playerCount, finished ? "" : " before the timeout", done / seconds, seconds);
+        System.out.printf(Locale.ROOT, "transfer latency p50=%.0fms p90=%.0fms p99=%.0fms p99.9=%.0fms max=%.0fms%n",
+                transferLatency.percentileMicros(0.5) / 1000.0, transferLatency.percentileMicros(0.9) / 1000.0,
+                transferLatency.percentileMicros(0.99) / 1000.0, transferLatency.percentileMicros(0.999) / 1000.0,
+                transferLatency.maxMicros() / 1000.0);
+        System.out.printf(Locale.ROOT, "queue attempts=%d cancelled=%d failed connects=%d action bars=%d%n",
+                queueServers.queued.sum(), cancelledQueues.sum(), failedConnects.sum(), actionBars.sum());
+        if (redis != null) {
+            System.out.println("redis commands=" + redis.commands.sum());
+            System.out.println("prepare transfer notices=" + prepareNotices.sum() + " malformed=" + malformedNotices.sum());
+        }
+        System.out.println();
+        plugin.metrics.summary().forEach(System.out::println);
+        boolean passed = done == playerCount && unfinished == 0;
+        System.out.println();
+        if (passed)
+            System.out.println("PASSED");
+        else
+            System.out.printf(Locale.ROOT, "FAILED: %d of %d players never reached the target, %d arrived with their transfer unfinished%n",
+                    playerCount - done, playerCount, unfinished);
+        return passed;
+    }
+}
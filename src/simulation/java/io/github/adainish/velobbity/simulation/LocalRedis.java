@@ -0,0 +1,444 @@
+package io.github.adainish.velobbity.simulation;
+
+import io.github.adainish.velobbity.redis.PlayerStatusLookup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * An in-process stand-in for redis, listening on the loopback interface only.
+ * It speaks enough of the RESP2 protocol for everything the plugin sends through Jedis: plain and hash keys with
+ * expiry, MGET, PUBLISH, channel and pattern subscriptions, and keyspace notifications for the status keys.
+ * Lua scripts are not supported, so shared cluster occupancy cannot be simulated against it.
+ */
+public class LocalRedis implements AutoCloseable
+{
+    private static final byte[] OK = "+OK\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = Executors.newCachedThreadPool(PlayerStatusLookup.namedDaemonThreads("LocalRedis"));
+    //keys and channels are kept as latin-1 strings, so any byte sequence survives the round trip
+    private final Map<String, Object> data = new ConcurrentHashMap<>();
+    private final Map<String, Long> expiries = new ConcurrentHashMap<>();
+    private final Set<Client> subscribers = ConcurrentHashMap.newKeySet();
+    private final Map<String, List<Consumer<byte[]>>> listeners = new ConcurrentHashMap<>();
+    private final boolean keyspaceNotifications;
+    private volatile boolean running = true;
+
+    public final LongAdder commands = new LongAdder();
+
+    private class Client
+    {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        final Set<String> channels = ConcurrentHashMap.newKeySet();
+        final Set<String> patterns = ConcurrentHashMap.newKeySet();
+
+        Client(Socket socket) throws IOException
+        {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        int subscriptions()
+        {
+            return channels.size() + patterns.size();
+        }
+
+        //publishes from other connections write here too, one reply at a time
+        synchronized void send(byte[]... parts) throws IOException
+        {
+            for (byte[] part : parts)
+                out.write(part);
+            out.flush();
+        }
+    }
+
+    public LocalRedis(boolean keyspaceNotifications) throws IOException
+    {
+        this.keyspaceNotifications = keyspaceNotifications;
+        this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        connections.execute(this::acceptLoop);
+    }
+
+    public int port()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    //write a value the way a backend server would, without a connection of its own
+    public void set(String key, String value)
+    {
+        expiries.remove(key);
+        data.put(key, value.getBytes(StandardCharsets.UTF_8));
+        notifyKeyspace(key, "set");
+    }
+
+    public void publish(String channel, byte[] message)
+    {
+        deliver(channel, message);
+    }
+
+    //follow a channel the way a backend server would, without a connection of its own
+    public void subscribe(String channel, Consumer<byte[]> listener)
+    {
+        listeners.computeIfAbsent(channel, name -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    private void acceptLoop()
+    {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Client client = new Client(socket);
+                connections.execute(() -> serve(client));
+            } catch (IOException e) {
+                if (running)
+                    System.err.println("LocalRedis stopped accepting connections: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void serve(Client client)
+    {
+        try (Socket ignored = client.socket) {
+            while (running) {
+                List<byte[]> command = readCommand(client.in);
+                if (command == null)
+                    return;
+                commands.increment();
+                if (!execute(client, command))
+                    return;
+            }
+        } catch (IOException e) {
+            //client went away
+        } finally {
+            subscribers.remove(client);
+        }
+    }
+
+    private static List<byte[]> readCommand(InputStream in) throws IOException
+    {
+        int type = in.read();
+        if (type == -1)
+            return null;
+        if (type != '*')
+            throw new IOException("Expected an array, got '" + (char) type + "'");
+        int length = (int) readNumber(in);
+        List<byte[]> arguments = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            if (in.read() != '$')
+                throw new IOException("Expected a bulk string");
+            byte[] argument = in.readNBytes((int) readNumber(in));
+            in.skipNBytes(2);
+            arguments.add(argument);
+        }
+        return arguments;
+    }
+
+    private static long readNumber(InputStream in) throws IOException
+    {
+        long value = 0;
+        boolean negative = false;
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b == -1)
+                throw new EOFException();
+            if (b == '-')
+                negative = true;
+            else
+                value = value * 10 + (b - '0');
+        }
+        in.read();
+        return negative ? -value : value;
+    }
+
+    //false once the connection should be closed
+    private boolean execute(Client client, List<byte[]> command) throws IOException
+    {
+        String name = text(command.get(0)).toUpperCase(Locale.ROOT);
+        switch (name) {
+            case "PING" -> {
+                if (client.subscriptions() > 0)
+                    client.send(array(2), bulk("pong"), bulk(command.size() > 1 ? command.get(1) : new byte[0]));
+                else
+                    client.send("+PONG\r\n".getBytes(StandardCharsets.US_ASCII));
+            }
+            case "AUTH", "SELECT", "CLIENT" -> client.send(OK);
+            case "QUIT" -> {
+                client.send(OK);
+                return false;
+            }
+            case "CONFIG" -> {
+                String parameter = command.size() > 2 ? text(command.get(2)) : "";
+                if (parameter.equals("notify-keyspace-events"))
+                    client.send(array(2), bulk(parameter), bulk(keyspaceNotifications ? "KEA" : ""));
+                else
+                    client.send(array(0));
+            }
+            case "GET" -> client.send(bulk(readString(key(command, 1))));
+            case "MGET" -> {
+                client.send(array(command.size() - 1));
+                for (int i = 1; i < command.size(); i++)
+                    client.send(bulk(readString(key(command, i))));
+            }
+            case "SET" -> {
+                String key = key(command, 1);
+                data.put(key, command.get(2));
+                expiries.remove(key);
+                for (int i = 3; i + 1 < command.size(); i++) {
+                    String option = text(command.get(i)).toUpperCase(Locale.ROOT);
+                    long amount = Long.parseLong(text(command.get(i + 1)));
+                    if (option.equals("EX"))
+                        expiries.put(key, System.currentTimeMillis() + amount * 1000);
+                    else if (option.equals("PX"))
+                        expiries.put(key, System.currentTimeMillis() + amount);
+                }
+                notifyKeyspace(key, "set");
+                client.send(OK);
+            }
+            case "DEL" -> {
+                int removed = 0;
+                for (int i = 1; i < command.size(); i++) {
+                    String key = key(command, i);
+                    expiries.remove(key);
+                    if (data.remove(key) != null) {
+                        removed++;
+                        notifyKeyspace(key, "del");
+                    }
+                }
+                client.send(integer(removed));
+            }
+            case "EXPIRE" -> {
+                String key = key(command, 1);
+                boolean exists = live(key) != null;
+                if (exists) {
+                    expiries.put(key, System.currentTimeMillis() + Long.parseLong(text(command.get(2))) * 1000);
+                    notifyKeyspace(key, "expire");
+                }
+                client.send(integer(exists ? 1 : 0));
+            }
+            case "HSET" -> {
+                String key = key(command, 1);
+                Map<String, byte[]> hash = hash(key);
+                int added = 0;
+                for (int i = 2; i + 1 < command.size(); i += 2) {
+                    if (hash.put(text(command.get(i)), command.get(i + 1)) == null)
+                        added++;
+                }
+                notifyKeyspace(key, "hset");
+                client.send(integer(added));
+            }
+            case "HGETALL" -> {
+                Object value = live(key(command, 1));
+                if (!(value instanceof Map<?, ?> hash)) {
+                    client.send(array(0));
+                    break;
+                }
+                Map<String, byte[]> copy = new LinkedHashMap<>();
+                hash.forEach((field, fieldValue) -> copy.put((String) field, (byte[]) fieldValue));
+                client.send(array(copy.size() * 2));
+                for (Map.Entry<String, byte[]> entry : copy.entrySet())
+                    client.send(bulk(entry.getKey()), bulk(entry.getValue()));
+            }
+            case "PUBLISH" -> client.send(integer(deliver(key(command, 1), command.get(2))));
+            case "SUBSCRIBE", "PSUBSCRIBE" -> {
+                boolean pattern = name.equals("PSUBSCRIBE");
+                subscribers.add(client);
+                for (int i = 1; i < command.size(); i++) {
+                    String target = key(command, i);
+                    (pattern ? client.patterns : client.channels).add(target);
+                    client.send(array(3), bulk(name.toLowerCase(Locale.ROOT)), bulk(command.get(i)), integer(client.subscriptions()));
+                }
+            }
+            case "UNSUBSCRIBE", "PUNSUBSCRIBE" -> {
+                Set<String> targets = name.equals("PUNSUBSCRIBE") ? client.patterns : client.channels;
+                List<String> removed = new ArrayList<>();
+                if (command.size() > 1) {
+                    for (int i = 1; i < command.size(); i++)
+                        removed.add(key(command, i));
+                } else {
+                    removed.addAll(targets);
+                }
+                String reply = name.toLowerCase(Locale.ROOT);
+                if (removed.isEmpty())
+                    client.send(array(3), bulk(reply), bulk((byte[]) null), integer(client.subscriptions()));
+                for (String target : removed) {
+                    targets.remove(target);
+                    client.send(array(3), bulk(reply), bulk(latin1(target)), integer(client.subscriptions()));
+                }
+                if (client.subscriptions() == 0)
+                    subscribers.remove(client);
+            }
+            default -> client.send(("-ERR unknown command '" + name + "'\r\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        return true;
+    }
+
+    //the value of a key, or null if it does not exist or has expired
+    private Object live(String key)
+    {
+        Long expiresAt = expiries.get(key);
+        if (expiresAt != null && expiresAt <= System.currentTimeMillis()) {
+            expiries.remove(key);
+            data.remove(key);
+            notifyKeyspace(key, "expired");
+            return null;
+        }
+        return data.get(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, byte[]> hash(String key)
+    {
+        Object value = live(key);
+        if (value instanceof Map)
+            return (Map<String, byte[]>) value;
+        Map<String, byte[]> hash = new ConcurrentHashMap<>();
+        data.put(key, hash);
+        return hash;
+    }
+
+    private byte[] readString(String key)
+    {
+        Object value = live(key);
+        return value instanceof byte[] bytes ? bytes : null;
+    }
+
+    private int deliver(String channel, byte[] message)
+    {
+        int receivers = 0;
+        byte[] channelBytes = latin1(channel);
+        for (Client subscriber : subscribers) {
+            try {
+                if (subscriber.channels.contains(channel)) {
+                    subscriber.send(array(3), bulk("message"), bulk(channelBytes), bulk(message));
+                    receivers++;
+                }
+                for (String pattern : subscriber.patterns) {
+                    if (matches(pattern, channel)) {
+                        subscriber.send(array(4), bulk("pmessage"), bulk(latin1(pattern)), bulk(channelBytes), bulk(message));
+                        receivers++;
+                    }
+                }
+            } catch (IOException e) {
+                subscribers.remove(subscriber);
+            }
+        }
+        List<Consumer<byte[]>> local = listeners.get(channel);
+        if (local != null) {
+            for (Consumer<byte[]> listener : local) {
+                listener.accept(message);
+                receivers++;
+            }
+        }
+        return receivers;
+    }
+
+    private void notifyKeyspace(String key, String event)
+    {
+        if (keyspaceNotifications && !subscribers.isEmpty())
+            deliver("__keyspace@0__:" + key, event.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    //glob matching with * and ?, which is all the plugin subscribes with
+    static boolean matches(String pattern, String text)
+    {
+        int p = 0;
+        int t = 0;
+        int star = -1;
+        int starText = 0;
+        while (t < text.length()) {
+            if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == text.charAt(t))) {
+                p++;
+                t++;
+            } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                starText = t;
+            } else if (star >= 0) {
+                p = star + 1;
+                t = ++starText;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*')
+            p++;
+        return p == pattern.length();
+    }
+
+    private static String key(List<byte[]> command, int index)
+    {
+        return new String(command.get(index), StandardCharsets.ISO_8859_1);
+    }
+
+    private static String text(byte[] bytes)
+    {
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] latin1(String text)
+    {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] array(int size)
+    {
+        return ("*" + size + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] integer(long value)
+    {
+        return (":" + value + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] bulk(String value)
+    {
+        return bulk(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] bulk(byte[] value)
+    {
+        if (value == null)
+            return "$-1\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] header = ("$" + value.length + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] reply = new byte[header.length + value.length + 2];
+        System.arraycopy(header, 0, reply, 0, header.length);
+        System.arraycopy(value, 0, reply, header.length, value.length);
+        reply[reply.length - 2] = '\r';
+        reply[reply.length - 1] = '\n';
+        return reply;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        running = false;
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+}
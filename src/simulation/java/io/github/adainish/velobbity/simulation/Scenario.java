@@ -0,0 +1,43 @@
+package io.github.adainish.velobbity.simulation;
+
+import java.util.Locale;
+
+/**
+ * The load shapes the simulator can replay. Every player logs in on the origin server and queues for the target,
+ * the scenario decides when they arrive, how long their data sync takes and what goes wrong along the way.
+ */
+public enum Scenario
+{
+    //everyone arrives within the first second, syncs are quick
+    LOGIN_STORM(true, 200, 800, false),
+    //arrivals spread over the run, the first lobby goes down for the middle third of it
+    LOBBY_OUTAGE(false, 200, 800, true),
+    //arrivals spread over the run, many syncs outlast the handoff timeout
+    SLOW_SYNC(false, 2000, 20000, false),
+    //arrivals spread over the run, nothing goes wrong
+    STEADY(false, 200, 800, false);
+
+    public final boolean burst;
+    public final long minSyncMillis;
+    public final long maxSyncMillis;
+    public final boolean lobbyOutage;
+
+    Scenario(boolean burst, long minSyncMillis, long maxSyncMillis, boolean lobbyOutage)
+    {
+        this.burst = burst;
+        this.minSyncMillis = minSyncMillis;
+        this.maxSyncMillis = maxSyncMillis;
+        this.lobbyOutage = lobbyOutage;
+    }
+
+    //how long arrivals are spread over, given the configured arrival window
+    public long arrivalWindowMillis(long arrivalMillis)
+    {
+        return burst ? Math.min(1000, arrivalMillis) : arrivalMillis;
+    }
+
+    public static Scenario fromString(String name)
+    {
+        return valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
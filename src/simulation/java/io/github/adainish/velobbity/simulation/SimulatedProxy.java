@@ -0,0 +1,163 @@
+package io.github.adainish.velobbity.simulation;
+
+import com.velocitypowered.api.command.CommandManager;
+import com.velocitypowered.api.command.CommandMeta;
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import com.velocitypowered.api.proxy.server.ServerInfo;
+import com.velocitypowered.api.scheduler.ScheduledTask;
+import com.velocitypowered.api.scheduler.Scheduler;
+import io.github.adainish.velobbity.fake.Fakes;
+import io.github.adainish.velobbity.redis.PlayerStatusLookup;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Velocity {@link ProxyServer} without a network: backend servers are sets of connected players, players are
+ * fakes, and the scheduler runs tasks on a small thread pool standing in for the proxy's own.
+ */
+public class SimulatedProxy
+{
+    public final ScheduledExecutorService executor;
+    private final Map<String, Set<Player>> connected = new ConcurrentHashMap<>();
+    private final Map<String, RegisteredServer> servers = new ConcurrentHashMap<>();
+    private final Map<UUID, Player> players = new ConcurrentHashMap<>();
+    public final ProxyServer server;
+
+    public SimulatedProxy(int threads)
+    {
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(threads, PlayerStatusLookup.namedDaemonThreads("SimulatedProxy"));
+        pool.setRemoveOnCancelPolicy(true);
+        this.executor = pool;
+        Scheduler scheduler = Fakes.of(Scheduler.class, Map.of("buildTask", args -> taskBuilder((Runnable) args[1])));
+        CommandManager commandManager = Fakes.of(CommandManager.class, Map.of("metaBuilder", args -> metaBuilder()));
+        this.server = Fakes.of(ProxyServer.class, Map.of(
+                "getScheduler", args -> scheduler,
+                "getCommandManager", args -> commandManager,
+                "getServer", args -> Optional.ofNullable(servers.get((String) args[0])),
+                "getAllServers", args -> List.copyOf(servers.values()),
+                "getPlayer", args -> args[0] instanceof UUID uuid ? Optional.ofNullable(players.get(uuid)) : Optional.empty(),
+                "getAllPlayers", args -> List.copyOf(players.values()),
+                "getPlayerCount", args -> players.size()));
+    }
+
+    public RegisteredServer register(String name)
+    {
+        return servers.computeIfAbsent(name, key -> {
+            ServerInfo info = new ServerInfo(key, InetSocketAddress.createUnresolved(key, 25565));
+            Set<Player> onServer = connected.computeIfAbsent(key, server -> ConcurrentHashMap.newKeySet());
+            return Fakes.of(RegisteredServer.class, Map.of(
+                    "getServerInfo", args -> info,
+                    "getPlayersConnected", args -> (Collection<Player>) List.copyOf(onServer),
+                    "ping", args -> CompletableFuture.completedFuture(null)));
+        });
+    }
+
+    public static Player player(UUID uuid, String username)
+    {
+        return Fakes.of(Player.class, Map.of(
+                "getUniqueId", args -> uuid,
+                "getUsername", args -> username,
+                "hasPermission", args -> true));
+    }
+
+    public void join(Player player)
+    {
+        players.put(player.getUniqueId(), player);
+    }
+
+    public void leave(Player player)
+    {
+        players.remove(player.getUniqueId());
+        connected.values().forEach(onServer -> onServer.remove(player));
+    }
+
+    //moves a player between backend servers, returns the server they left
+    public RegisteredServer move(Player player, String from, String to)
+    {
+        RegisteredServer previous = from != null ? servers.get(from) : null;
+        if (from != null)
+            connected.get(from).remove(player);
+        register(to);
+        connected.get(to).add(player);
+        return previous;
+    }
+
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    private Scheduler.TaskBuilder taskBuilder(Runnable runnable)
+    {
+        long[] delayAndRepeat = new long[2];
+        Scheduler.TaskBuilder[] self = new Scheduler.TaskBuilder[1];
+        self[0] = Fakes.of(Scheduler.TaskBuilder.class, Map.of(
+                "delay", args -> {
+                    delayAndRepeat[0] = millis(args);
+                    return self[0];
+                },
+                "repeat", args -> {
+                    delayAndRepeat[1] = millis(args);
+                    return self[0];
+                },
+                "clearDelay", args -> {
+                    delayAndRepeat[0] = 0;
+                    return self[0];
+                },
+                "clearRepeat", args -> {
+                    delayAndRepeat[1] = 0;
+                    return self[0];
+                },
+                "schedule", args -> schedule(runnable, delayAndRepeat[0], delayAndRepeat[1])));
+        return self[0];
+    }
+
+    private ScheduledTask schedule(Runnable runnable, long delayMillis, long repeatMillis)
+    {
+        //a task that throws must not stop its repeats, the real scheduler logs and carries on
+        Runnable guarded = () -> {
+            try {
+                runnable.run();
+            } catch (Throwable throwable) {
+                System.err.println("Scheduled task failed: " + throwable);
+            }
+        };
+        Future<?> future = repeatMillis > 0
+                ? executor.scheduleAtFixedRate(guarded, delayMillis, repeatMillis, TimeUnit.MILLISECONDS)
+                : executor.schedule(guarded, delayMillis, TimeUnit.MILLISECONDS);
+        return Fakes.of(ScheduledTask.class, Map.of("cancel", args -> future.cancel(false)));
+    }
+
+    private static long millis(Object[] args)
+    {
+        if (args[0] instanceof Duration duration)
+            return duration.toMillis();
+        return ((TimeUnit) args[1]).toMillis((Long) args[0]);
+    }
+
+    private static CommandMeta.Builder metaBuilder()
+    {
+        CommandMeta meta = Fakes.of(CommandMeta.class, Map.of());
+        CommandMeta.Builder[] self = new CommandMeta.Builder[1];
+        self[0] = Fakes.of(CommandMeta.Builder.class, Map.of(
+                "aliases", args -> self[0],
+                "plugin", args -> self[0],
+                "build", args -> meta));
+        return self[0];
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.adainish.velobbity;
+
+import com.google.gson.JsonObject;
+import io.github.adainish.velobbity.redis.PlayerStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LobbyStatusGateTest
+{
+    private PluginHarness harness;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        harness = new PluginHarness(new JsonObject());
+        harness.plugin.statusRecheckScheduler.baseDelayMillis = 200;
+        harness.plugin.statusRecheckScheduler.maxDelayMillis = 400;
+    }
+
+    @AfterEach
+    void tearDown() throws Exception
+    {
+        harness.close();
+    }
+
+    @Test
+    void aPlayerWithoutAKnownSyncIsNotHeldBack() throws Exception
+    {
+        UUID uuid = harness.join("lobby1");
+        harness.plugin.playerStatusCache.put(uuid, "restoring", -1);
+        harness.queue(uuid, "target");
+        assertEquals(Boolean.TRUE, harness.queueOutcomes.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void aHeldBackPlayerIsQueuedOnceTheirStatusClears() throws Exception
+    {
+        UUID uuid = harness.join("lobby1");
+        harness.report(uuid, PlayerStatus.SYNCING);
+        harness.queue(uuid, "target");
+        assertEquals(Boolean.FALSE, harness.queueOutcomes.poll(1, TimeUnit.SECONDS));
+        assertEquals(1, harness.plugin.statusRecheckScheduler.pendingCount());
+        //still syncing, the rechecks keep them waiting
+        assertNull(harness.queueOutcomes.poll(1, TimeUnit.SECONDS));
+
+        //the sync finishes, but the safe message is not what moves them on
+        harness.redis.set(uuid.toString(), "safe:" + System.currentTimeMillis());
+        harness.plugin.playerStatusCache.put(uuid, "safe", System.currentTimeMillis());
+        assertEquals(Boolean.TRUE, harness.queueOutcomes.poll(5, TimeUnit.SECONDS));
+        assertEquals(0, harness.plugin.statusRecheckScheduler.pendingCount());
+    }
+
+    @Test
+    void aSyncThatNeverEndsStopsHoldingThePlayerBack() throws Exception
+    {
+        harness.plugin.statusRecheckScheduler.maxAttempts = 2;
+        UUID uuid = harness.join("lobby1");
+        harness.report(uuid, PlayerStatus.SYNCING);
+        harness.queue(uuid, "target");
+        assertEquals(Boolean.FALSE, harness.queueOutcomes.poll(1, TimeUnit.SECONDS));
+        assertEquals(Boolean.TRUE, harness.queueOutcomes.poll(5, TimeUnit.SECONDS));
+    }
+}
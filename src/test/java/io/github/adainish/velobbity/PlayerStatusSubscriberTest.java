@@ -0,0 +1,50 @@
+package io.github.adainish.velobbity;
+
+import com.google.gson.JsonObject;
+import io.github.adainish.velobbity.redis.PlayerStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlayerStatusSubscriberTest
+{
+    private PluginHarness harness;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        harness = new PluginHarness(new JsonObject());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception
+    {
+        harness.close();
+    }
+
+    @Test
+    void recordsForPlayersWithoutASessionAreSkipped()
+    {
+        UUID here = harness.join("origin");
+        harness.report(here, PlayerStatus.SYNCING);
+        assertEquals("syncing", harness.plugin.playerStatusCache.get(here));
+
+        //on another proxy, no session is made for them
+        UUID elsewhere = UUID.randomUUID();
+        harness.report(elsewhere, PlayerStatus.SYNCING);
+        assertNull(harness.plugin.sessions.get(elsewhere));
+        assertNull(harness.plugin.playerStatusCache.get(elsewhere));
+    }
+
+    @Test
+    void anUnknownStatusIsNotPublished()
+    {
+        UUID uuid = harness.join("origin");
+        assertThrows(IllegalArgumentException.class, () -> harness.plugin.sendPlayerUpdateStatus(uuid, "synced"));
+        assertThrows(IllegalArgumentException.class, () -> harness.plugin.sendPlayerUpdateStatus(uuid, ""));
+    }
+}
@@ -0,0 +1,149 @@
+package io.github.adainish.velobbity;
+
+import com.google.gson.JsonObject;
+import com.velocitypowered.api.event.player.KickedFromServerEvent;
+import com.velocitypowered.api.event.player.ServerConnectedEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
+import com.velocitypowered.api.proxy.Player;
+import io.github.adainish.velobbity.configuration.GSON;
+import io.github.adainish.velobbity.data.LobbyServer;
+import io.github.adainish.velobbity.fake.FakePlugin;
+import io.github.adainish.velobbity.fake.FakeQueueServers;
+import io.github.adainish.velobbity.fake.Fakes;
+import io.github.adainish.velobbity.redis.PlayerStatus;
+import io.github.adainish.velobbity.redis.StatusFrame;
+import io.github.adainish.velobbity.simulation.LocalRedis;
+import io.github.adainish.velobbity.simulation.SimulatedProxy;
+import net.kyori.adventure.text.Component;
+import us.ajg0702.queue.api.PlatformMethods;
+import us.ajg0702.queue.api.events.PreQueueEvent;
+import us.ajg0702.queue.api.players.AdaptedPlayer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+
+/**
+ * The plugin set up from a config file against the simulator's fake proxy and AjQueue, with a
+ * {@link LocalRedis} behind it. Servers origin, lobby1 and target exist, lobby1 is the only lobby.
+ * Every addToQueue fires PreQueueEvent through the plugin as AjQueue does, and its outcome is recorded.
+ */
+public class PluginHarness implements AutoCloseable
+{
+    public final Path directory;
+    public final LocalRedis redis;
+    public final SimulatedProxy proxy = new SimulatedProxy(2);
+    public final FakeQueueServers queueServers = new FakeQueueServers();
+    public final Velobbbity plugin;
+    //true for each queue attempt the plugin let through, false for each one it cancelled
+    public final LinkedBlockingQueue<Boolean> queueOutcomes = new LinkedBlockingQueue<>();
+    private final Map<UUID, AdaptedPlayer> adaptedPlayers = new ConcurrentHashMap<>();
+    private final Map<UUID, Player> players = new ConcurrentHashMap<>();
+
+    public PluginHarness(JsonObject transfer) throws IOException
+    {
+        this.directory = Files.createTempDirectory("velobbity-test");
+        this.redis = new LocalRedis(true);
+        for (String serverName : List.of("origin", "lobby1", "target")) {
+            proxy.register(serverName);
+            queueServers.add(serverName);
+        }
+        this.plugin = FakePlugin.install(proxy.server);
+        plugin.directory = directory.toString();
+        Files.writeString(directory.resolve("config.json"), GSON.PRETTY_MAIN_GSON().toJson(config(transfer)));
+        plugin.setupConfig();
+        if (!plugin.canLoad)
+            throw new IllegalStateException("The plugin could not load its configuration");
+        plugin.queueManager = queueServers.queueManager;
+        plugin.platformMethods = Fakes.of(PlatformMethods.class, Map.of("getPlayer", args -> adaptedPlayers.get((UUID) args[0])));
+        queueServers.queueHandler = (adaptedPlayer, serverName) -> {
+            PreQueueEvent event = new PreQueueEvent(adaptedPlayer, queueServers.get(serverName).queueServer);
+            plugin.handlePreQueue(event);
+            queueOutcomes.add(!event.isCancelled());
+            return !event.isCancelled();
+        };
+        plugin.start();
+    }
+
+    //a player online on the proxy, currently on the given server
+    public UUID join(String serverName)
+    {
+        UUID uuid = UUID.randomUUID();
+        Player player = SimulatedProxy.player(uuid, "player");
+        proxy.join(player);
+        players.put(uuid, player);
+        adaptedPlayers.put(uuid, FakeQueueServers.player(uuid, "player", serverName));
+        plugin.getOrCreatePlayer(uuid, "player");
+        moveTo(uuid, null, serverName);
+        return uuid;
+    }
+
+    public void moveTo(UUID uuid, String from, String serverName)
+    {
+        Player player = players.get(uuid);
+        proxy.move(player, from, serverName);
+        plugin.serverJoin(new ServerConnectedEvent(player, proxy.register(serverName), from != null ? proxy.register(from) : null));
+    }
+
+    //a connect to the given server that the backend refused, the player stays where they were
+    public void refuseConnect(UUID uuid, String serverName)
+    {
+        Component reason = Component.text("Server offline");
+        plugin.onKickedFromServer(new KickedFromServerEvent(players.get(uuid), proxy.register(serverName), reason, true, KickedFromServerEvent.Notify.create(reason)));
+    }
+
+    public void queue(UUID uuid, String serverName)
+    {
+        queueServers.queueManager.addToQueue(adaptedPlayers.get(uuid), serverName);
+    }
+
+    //what the origin server publishes, with the value it stores alongside
+    public void report(UUID uuid, PlayerStatus status)
+    {
+        long now = System.currentTimeMillis();
+        redis.set(uuid.toString(), status.name + ":" + now);
+        PlayerStatusSubscriber.handle(new StatusFrame.Writer(64).add(uuid, status, now, "origin").toByteArray());
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        plugin.onProxyShutdown(new ProxyShutdownEvent());
+        proxy.shutdown();
+        redis.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                Files.deleteIfExists(file);
+        }
+    }
+
+    private JsonObject config(JsonObject transfer)
+    {
+        JsonObject root = new JsonObject();
+        JsonObject configuration = new JsonObject();
+        configuration.add("servers", plugin.toJSONElement(List.of(new LobbyServer("lobby1", 100))));
+        configuration.addProperty("occupancySnapshotMillis", 100);
+        root.add("configuration", configuration);
+        root.add("transfer", transfer);
+        JsonObject redisSection = new JsonObject();
+        redisSection.addProperty("host", "127.0.0.1");
+        redisSection.addProperty("port", redis.port());
+        redisSection.addProperty("password", "");
+        redisSection.addProperty("database", 0);
+        root.add("redis", redisSection);
+        JsonObject health = new JsonObject();
+        health.addProperty("enabled", false);
+        root.add("health", health);
+        JsonObject metrics = new JsonObject();
+        metrics.addProperty("enabled", false);
+        root.add("metrics", metrics);
+        return root;
+    }
+}
@@ -0,0 +1,35 @@
+package io.github.adainish.velobbity.configuration;
+
+import com.google.gson.JsonParseException;
+import io.github.adainish.velobbity.data.LobbyServer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LobbyServerTypeAdapterTest
+{
+    @Test
+    void missingFieldsKeepTheirDefaults()
+    {
+        LobbyServer lobbyServer = GSON.PRETTY_MAIN_GSON().fromJson("{\"serverName\":\"lobby2\",\"maxPlayers\":null,\"motd\":\"hi\"}", LobbyServer.class);
+        assertEquals("lobby2", lobbyServer.serverName);
+        assertEquals(100, lobbyServer.maxPlayers);
+        assertEquals(40, lobbyServer.burst);
+    }
+
+    @Test
+    void rejectsLobbiesWithoutAName()
+    {
+        assertThrows(JsonParseException.class, () -> GSON.PRETTY_MAIN_GSON().fromJson("{\"maxPlayers\":50}", LobbyServer.class));
+        assertThrows(JsonParseException.class, () -> GSON.PRETTY_MAIN_GSON().fromJson("{\"serverName\":null}", LobbyServer.class));
+        assertThrows(JsonParseException.class, () -> GSON.PRETTY_MAIN_GSON().fromJson("{\"serverName\":\"\"}", LobbyServer.class));
+    }
+
+    @Test
+    void writesALobbyWithoutANameWithoutFailing()
+    {
+        String json = GSON.PRETTY_MAIN_GSON().toJson(new LobbyServer(null, 50));
+        assertFalse(json.contains("serverName"));
+        assertTrue(json.contains("\"maxPlayers\": 50"));
+    }
+}
@@ -0,0 +1,152 @@
+package io.github.adainish.velobbity.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlayerSessionStoreTest
+{
+    //segment count and initial table size of the store
+    private static final int SEGMENTS = 16;
+    private static final int INITIAL_CAPACITY = 64;
+
+    @Test
+    void getOrCreateReturnsTheSameSession()
+    {
+        PlayerSessionStore store = new PlayerSessionStore();
+        UUID uuid = UUID.randomUUID();
+        VelobbityPlayer created = store.getOrCreate(uuid, "Steve");
+        assertSame(created, store.getOrCreate(uuid, "Steve"));
+        assertSame(created, store.get(uuid));
+        assertSame(created, store.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+        assertEquals(uuid, created.getUuid());
+        assertEquals(1, store.size());
+        assertSame(created, store.remove(uuid));
+        assertNull(store.get(uuid));
+        assertNull(store.remove(uuid));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void probingWrapsAroundTheEndOfTheTable()
+    {
+        PlayerSessionStore store = new PlayerSessionStore();
+        //two keys at home in the last slot of segment 0, and one at home in its first slot
+        List<UUID> lastSlot = keysAt(0, INITIAL_CAPACITY - 1, 2);
+        UUID firstSlot = keysAt(0, 0, 1).get(0);
+        VelobbityPlayer a = store.getOrCreate(lastSlot.get(0), "a");
+        VelobbityPlayer b = store.getOrCreate(lastSlot.get(1), "b");
+        VelobbityPlayer c = store.getOrCreate(firstSlot, "c");
+        assertSame(a, store.get(lastSlot.get(0)));
+        assertSame(b, store.get(lastSlot.get(1)));
+        assertSame(c, store.get(firstSlot));
+
+        //deleting the entry in the last slot shifts the wrapped entries back across the boundary
+        assertSame(a, store.remove(lastSlot.get(0)));
+        assertSame(b, store.get(lastSlot.get(1)));
+        assertSame(c, store.get(firstSlot));
+        assertSame(b, store.remove(lastSlot.get(1)));
+        assertSame(c, store.get(firstSlot));
+        assertSame(c, store.remove(firstSlot));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void growsAndShrinksWithItsContents()
+    {
+        PlayerSessionStore store = new PlayerSessionStore();
+        int initialCapacity = store.capacity();
+        assertEquals(SEGMENTS * INITIAL_CAPACITY, initialCapacity);
+        Random random = new Random(7);
+        List<UUID> uuids = new ArrayList<>();
+        for (int i = 0; i < 20000; i++)
+            uuids.add(new UUID(random.nextLong(), random.nextLong()));
+        Map<UUID, VelobbityPlayer> created = new HashMap<>();
+        for (UUID uuid : uuids)
+            created.put(uuid, store.getOrCreate(uuid, ""));
+        assertEquals(uuids.size(), store.size());
+        assertTrue(store.capacity() > initialCapacity);
+        //no segment above three quarters full
+        assertTrue(store.size() * 4 <= store.capacity() * 3);
+        for (UUID uuid : uuids)
+            assertSame(created.get(uuid), store.get(uuid));
+
+        int peakCapacity = store.capacity();
+        for (UUID uuid : uuids.subList(100, uuids.size()))
+            assertSame(created.get(uuid), store.remove(uuid));
+        assertEquals(100, store.size());
+        assertTrue(store.capacity() < peakCapacity);
+        for (UUID uuid : uuids.subList(0, 100))
+            assertSame(created.get(uuid), store.get(uuid));
+        for (UUID uuid : uuids.subList(0, 100))
+            store.remove(uuid);
+        assertEquals(initialCapacity, store.capacity());
+    }
+
+    @Test
+    void matchesAMapUnderRandomOperations()
+    {
+        PlayerSessionStore store = new PlayerSessionStore();
+        Map<UUID, VelobbityPlayer> reference = new HashMap<>();
+        Random random = new Random(3);
+        //few distinct low bits, like offline mode uuids
+        List<UUID> pool = new ArrayList<>();
+        for (int i = 0; i < 2000; i++)
+            pool.add(new UUID(random.nextLong(), i % 7));
+        for (int operation = 0; operation < 200000; operation++) {
+            UUID uuid = pool.get(random.nextInt(pool.size()));
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    VelobbityPlayer player = store.getOrCreate(uuid, "");
+                    assertSame(reference.computeIfAbsent(uuid, key -> player), player);
+                }
+                case 1 -> assertSame(reference.remove(uuid), store.remove(uuid));
+                default -> assertSame(reference.get(uuid), store.get(uuid));
+            }
+        }
+        assertEquals(reference.size(), store.size());
+    }
+
+    @Test
+    void evictsIdleSessionsOfPlayersThatAreGone()
+    {
+        PlayerSessionStore store = new PlayerSessionStore();
+        UUID idle = UUID.randomUUID();
+        UUID online = UUID.randomUUID();
+        UUID active = UUID.randomUUID();
+        VelobbityPlayer idlePlayer = store.getOrCreate(idle, "idle");
+        store.getOrCreate(online, "online").lastSeenMillis -= 60000;
+        store.getOrCreate(active, "active");
+        idlePlayer.lastSeenMillis -= 60000;
+        Map<UUID, VelobbityPlayer> evicted = new HashMap<>();
+        int count = store.evictIdle(30000, online::equals, evicted::put);
+        assertEquals(1, count);
+        assertEquals(Map.of(idle, idlePlayer), evicted);
+        assertNull(store.get(idle));
+        assertNotNull(store.get(online));
+        assertNotNull(store.get(active));
+        assertEquals(1, store.evictions());
+    }
+
+    //uuids whose hash puts them in the given segment, at home in the given slot of an initial size table
+    private static List<UUID> keysAt(int segment, int slot, int count)
+    {
+        Random random = new Random(segment * 31L + slot);
+        List<UUID> keys = new ArrayList<>(count);
+        while (keys.size() < count) {
+            long most = random.nextLong();
+            long least = random.nextLong();
+            long hash = PlayerSessionStore.hash(most, least);
+            if ((int) (hash >>> 60) == segment && ((int) hash & (INITIAL_CAPACITY - 1)) == slot)
+                keys.add(new UUID(most, least));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,125 @@
+package io.github.adainish.velobbity.lobby;
+
+import io.github.adainish.velobbity.data.LobbyServer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRingTest
+{
+    private static final int PLAYERS = 20000;
+
+    @Test
+    void addingAnEleventhLobbyMovesAboutOneInEleven()
+    {
+        List<UUID> players = players();
+        HashRing ten = new HashRing(lobbies(10, 100));
+        HashRing eleven = new HashRing(lobbies(11, 100));
+        int moved = 0;
+        for (UUID player : players) {
+            String before = owner(ten, lobbies(10, 100), player);
+            String after = owner(eleven, lobbies(11, 100), player);
+            if (!before.equals(after)) {
+                moved++;
+                //only the new lobby takes players, nobody is shuffled between the existing ones
+                assertEquals("lobby10", after);
+            }
+        }
+        double fraction = moved / (double) PLAYERS;
+        assertEquals(1.0 / 11, fraction, 0.03, "share of players moved");
+    }
+
+    @Test
+    void spreadsPlayersEvenlyOverEqualLobbies()
+    {
+        LobbyOccupancy[] lobbies = lobbies(10, 100);
+        HashRing ring = new HashRing(lobbies);
+        Map<String, Integer> counts = new HashMap<>();
+        for (UUID player : players())
+            counts.merge(owner(ring, lobbies, player), 1, Integer::sum);
+        assertEquals(10, counts.size());
+        for (int count : counts.values())
+            assertEquals(0.1, count / (double) PLAYERS, 0.03);
+    }
+
+    @Test
+    void largerLobbiesOwnMoreOfTheRing()
+    {
+        LobbyOccupancy[] lobbies = {new LobbyOccupancy("small", 100), new LobbyOccupancy("large", 300)};
+        HashRing ring = new HashRing(lobbies);
+        int large = 0;
+        for (UUID player : players()) {
+            if (owner(ring, lobbies, player).equals("large"))
+                large++;
+        }
+        assertEquals(0.75, large / (double) PLAYERS, 0.05);
+    }
+
+    @Test
+    void matchesOnlyTheSameLobbies()
+    {
+        HashRing ring = new HashRing(lobbies(3, 100));
+        assertTrue(ring.matches(lobbies(3, 100)));
+        assertFalse(ring.matches(lobbies(4, 100)));
+        assertFalse(ring.matches(lobbies(3, 200)));
+    }
+
+    @Test
+    void consistentHashReturnsPlayersToTheirLobby()
+    {
+        List<LobbyServer> configured = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            configured.add(new LobbyServer("lobby" + i, 1000));
+        LobbySelector selector = new LobbySelector(SelectionPolicy.CONSISTENT_HASH);
+        for (UUID player : players().subList(0, 200)) {
+            selector.refresh(configured, serverName -> 0, serverName -> true);
+            String first = selector.select(player, serverName -> true).serverName;
+            selector.refresh(configured, serverName -> 0, serverName -> true);
+            assertEquals(first, selector.select(player, serverName -> true).serverName);
+        }
+    }
+
+    @Test
+    void consistentHashKeepsLoadWithinTheBound()
+    {
+        List<LobbyServer> configured = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            configured.add(new LobbyServer("lobby" + i, 1000));
+        LobbySelector selector = new LobbySelector(SelectionPolicy.CONSISTENT_HASH);
+        selector.refresh(configured, serverName -> 0, serverName -> true);
+        //placed without a refresh in between, so only the reservations spread them
+        for (UUID player : players().subList(0, 2000))
+            assertNotNull(selector.select(player, serverName -> true));
+        for (LobbyOccupancy lobby : selector.getLobbies())
+            assertTrue(lobby.load() <= Math.ceil(selector.affinityLoadFactor * 2000 / 5) + 1, lobby.serverName + " holds " + lobby.load());
+    }
+
+    private static String owner(HashRing ring, LobbyOccupancy[] lobbies, UUID player)
+    {
+        return lobbies[ring.owner(ring.start(player))].serverName;
+    }
+
+    private static LobbyOccupancy[] lobbies(int count, int maxPlayers)
+    {
+        LobbyOccupancy[] lobbies = new LobbyOccupancy[count];
+        for (int i = 0; i < count; i++)
+            lobbies[i] = new LobbyOccupancy("lobby" + i, maxPlayers);
+        return lobbies;
+    }
+
+    private static List<UUID> players()
+    {
+        Random random = new Random(1);
+        List<UUID> players = new ArrayList<>(PLAYERS);
+        for (int i = 0; i < PLAYERS; i++)
+            players.add(new UUID(random.nextLong(), random.nextLong()));
+        return players;
+    }
+}
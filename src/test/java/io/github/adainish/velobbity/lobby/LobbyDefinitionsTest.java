@@ -0,0 +1,25 @@
+package io.github.adainish.velobbity.lobby;
+
+import io.github.adainish.velobbity.data.LobbyServer;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LobbyDefinitionsTest
+{
+    @Test
+    void laterChangesToTheConfiguredServersDoNotReachTheSnapshot()
+    {
+        LobbyServer configured = new LobbyServer("lobby1", 100);
+        configured.connectsPerSecond = 5;
+        LobbyDefinitions definitions = new LobbyDefinitions(List.of(configured));
+
+        configured.maxPlayers = 10;
+        configured.connectsPerSecond = 50;
+        assertEquals(100, definitions.get("lobby1").maxPlayers);
+        assertEquals(5.0, definitions.get("lobby1").connectsPerSecond, 0.0);
+        assertSame(definitions.get("lobby1"), definitions.servers().get(0));
+    }
+}
@@ -0,0 +1,46 @@
+package io.github.adainish.velobbity.lobby;
+
+import io.github.adainish.velobbity.data.LobbyServer;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LobbySelectorTest
+{
+    private static final List<LobbyServer> CONFIGURED = List.of(new LobbyServer("a", 100), new LobbyServer("b", 100));
+
+    @Test
+    void leastLoadedSeesReservationsMadeByOtherPolicies()
+    {
+        LobbySelector selector = new LobbySelector(SelectionPolicy.CONSISTENT_HASH);
+        selector.refresh(CONFIGURED, serverName -> 0, serverName -> true);
+        //placed by affinity or a rebalance between two snapshots, not through the least loaded pick
+        selector.find("a").reserved.addAndGet(50);
+
+        selector.policy = SelectionPolicy.LEAST_LOADED;
+        assertEquals("b", selector.select(serverName -> true).serverName);
+    }
+
+    @Test
+    void leastLoadedSpreadsABurstBetweenSnapshots()
+    {
+        LobbySelector selector = new LobbySelector(SelectionPolicy.LEAST_LOADED);
+        selector.refresh(CONFIGURED, serverName -> serverName.equals("a") ? 10 : 0, serverName -> true);
+        for (int i = 0; i < 30; i++)
+            assertNotNull(selector.select(serverName -> true));
+        assertEquals(20, selector.find("a").load());
+        assertEquals(20, selector.find("b").load());
+    }
+
+    @Test
+    void aRefusedLobbyIsSkippedNotDropped()
+    {
+        LobbySelector selector = new LobbySelector(SelectionPolicy.LEAST_LOADED);
+        selector.refresh(CONFIGURED, serverName -> serverName.equals("a") ? 0 : 10, serverName -> true);
+        assertEquals("b", selector.select(serverName -> !serverName.equals("a")).serverName);
+        assertEquals("a", selector.select(serverName -> true).serverName);
+        assertNull(selector.select(serverName -> false));
+    }
+}
@@ -0,0 +1,116 @@
+package io.github.adainish.velobbity.lobby;
+
+import io.github.adainish.velobbity.data.LobbyServer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RebalancePlannerTest
+{
+    @Test
+    void fillsTheEmptiestLobbiesFirst()
+    {
+        LobbyOccupancy[] lobbies = {lobby("source", 100, 80), lobby("busy", 100, 60), lobby("quiet", 100, 0)};
+        RebalancePlanner.Plan plan = RebalancePlanner.plan(players(80), lobbies, "source");
+        Map<String, Integer> counts = counts(plan);
+        assertNull(counts.get("source"));
+        assertTrue(plan.unplaced.isEmpty());
+        //water-filling: quiet catches up to busy, then both take the same share
+        assertEquals(70, (int) counts.get("quiet"));
+        assertEquals(10, (int) counts.get("busy"));
+        assertEquals(70, lobbies[1].load());
+        assertEquals(70, lobbies[2].load());
+    }
+
+    @Test
+    void evensOutFillRatioAcrossSizes()
+    {
+        LobbyOccupancy[] lobbies = {lobby("source", 100, 100), lobby("small", 50, 0), lobby("large", 200, 0)};
+        RebalancePlanner.Plan plan = RebalancePlanner.plan(players(100), lobbies, "source");
+        assertEquals(lobbies[1].fillRatio(), lobbies[2].fillRatio(), 0.05);
+        assertEquals(100, plan.assignments.size());
+    }
+
+    @Test
+    void leavesPlayersWithoutRoomUnplaced()
+    {
+        LobbyOccupancy[] lobbies = {lobby("source", 100, 50), lobby("a", 20, 15), lobby("b", 20, 10)};
+        List<UUID> displaced = players(50);
+        RebalancePlanner.Plan plan = RebalancePlanner.plan(displaced, lobbies, "source");
+        assertEquals(15, plan.assignments.size());
+        assertEquals(displaced.subList(15, 50), plan.unplaced);
+        for (LobbyOccupancy lobby : lobbies)
+            assertTrue(lobby.load() <= lobby.maxPlayers, lobby.serverName + " over capacity");
+    }
+
+    @Test
+    void skipsLobbiesThatAreOfflineOrFull()
+    {
+        LobbyOccupancy offline = lobby("offline", 100, 0);
+        offline.online = false;
+        LobbyOccupancy[] lobbies = {offline, lobby("full", 10, 10), lobby("open", 100, 0)};
+        RebalancePlanner.Plan plan = RebalancePlanner.plan(players(5), lobbies, "source");
+        assertEquals(Map.of("open", 5), counts(plan));
+    }
+
+    @Test
+    void interleavesConsecutiveMoves()
+    {
+        LobbyOccupancy[] lobbies = {lobby("a", 100, 0), lobby("b", 100, 0), lobby("c", 100, 0)};
+        RebalancePlanner.Plan plan = RebalancePlanner.plan(players(30), lobbies, "source");
+        for (int i = 0; i + 2 < plan.assignments.size(); i += 3) {
+            HashSet<String> wave = new HashSet<>();
+            for (int j = i; j < i + 3; j++)
+                wave.add(plan.assignments.get(j).serverName);
+            assertEquals(3, wave.size(), "moves " + i + " to " + (i + 2) + " share a lobby");
+        }
+    }
+
+    @Test
+    void plannedMovesStayCountedAcrossRefreshes()
+    {
+        List<LobbyServer> configured = List.of(new LobbyServer("a", 10), new LobbyServer("b", 10));
+        LobbySelector selector = new LobbySelector(SelectionPolicy.LEAST_LOADED);
+        selector.addPendingMoves("a", 10);
+        selector.refresh(configured, serverName -> 0, serverName -> true);
+        assertEquals(10, selector.find("a").load());
+        assertFalse(selector.find("a").hasCapacity());
+        assertEquals("b", selector.select(serverName -> true).serverName);
+
+        //made or given up, the lobby counts only its own players again
+        selector.addPendingMoves("a", -10);
+        selector.refresh(configured, serverName -> 0, serverName -> true);
+        assertEquals(0, selector.find("a").load());
+    }
+
+    private static LobbyOccupancy lobby(String serverName, int maxPlayers, int players)
+    {
+        LobbyOccupancy lobby = new LobbyOccupancy(serverName, maxPlayers);
+        lobby.online = true;
+        lobby.players = players;
+        return lobby;
+    }
+
+    private static List<UUID> players(int count)
+    {
+        List<UUID> players = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            players.add(new UUID(0, i));
+        return players;
+    }
+
+    private static Map<String, Integer> counts(RebalancePlanner.Plan plan)
+    {
+        Map<String, Integer> counts = new HashMap<>();
+        for (RebalancePlanner.Assignment assignment : plan.assignments)
+            counts.merge(assignment.serverName, 1, Integer::sum);
+        return counts;
+    }
+}
@@ -0,0 +1,70 @@
+package io.github.adainish.velobbity.redis;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlayerStatusCacheTest
+{
+    @Test
+    void freshnessFollowsTheBackendsReportTime()
+    {
+        PlayerStatusCache cache = new PlayerStatusCache(uuid -> true, 100, 30000);
+        UUID recent = UUID.randomUUID();
+        UUID old = UUID.randomUUID();
+        UUID undated = UUID.randomUUID();
+        long now = System.currentTimeMillis();
+        cache.put(recent, "safe", now - 1000);
+        cache.put(old, "safe", now - 60000);
+        cache.put(undated, "safe", -1);
+        assertEquals("safe", cache.getFresh(recent, 5000));
+        //stored just now, but reported long ago
+        assertNull(cache.getFresh(old, 5000));
+        assertNull(cache.getFresh(undated, 5000));
+        //age does not matter to a plain read
+        assertEquals("safe", cache.get(old));
+        assertEquals("safe", cache.get(undated));
+    }
+
+    @Test
+    void readsTheReportTimeStoredWithAStatus()
+    {
+        assertEquals("safe", PlayerStatus.statusOf("safe:1700000000000"));
+        assertEquals(1700000000000L, PlayerStatus.reportedAtOf("safe:1700000000000"));
+        assertEquals("syncing", PlayerStatus.statusOf("syncing"));
+        assertEquals(-1, PlayerStatus.reportedAtOf("syncing"));
+        assertEquals(-1, PlayerStatus.reportedAtOf("safe:soon"));
+        assertEquals("", PlayerStatus.statusOf(""));
+        assertNull(PlayerStatus.statusOf(null));
+        assertEquals(-1, PlayerStatus.reportedAtOf(null));
+    }
+
+    @Test
+    void onlyAChangeToTheSameKeyDropsALookup()
+    {
+        PlayerStatusCache cache = new PlayerStatusCache(uuid -> true, 100, 30000);
+        UUID looked = new UUID(0, 1);
+        UUID other = new UUID(0, 2);
+        long version = cache.beginLookup(looked);
+        cache.invalidate(other);
+        cache.fill(looked, "safe", -1, version);
+        assertEquals("safe", cache.get(looked));
+
+        version = cache.beginLookup(looked);
+        cache.invalidate(looked);
+        cache.fill(looked, "syncing", -1, version);
+        assertNull(cache.get(looked));
+    }
+
+    @Test
+    void skipsPlayersThatAreNotOnline()
+    {
+        PlayerStatusCache cache = new PlayerStatusCache(uuid -> false, 100, 30000);
+        UUID uuid = UUID.randomUUID();
+        cache.put(uuid, "safe", System.currentTimeMillis());
+        assertNull(cache.get(uuid));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,40 @@
+package io.github.adainish.velobbity.redis;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrepareTransferNoticeTest
+{
+    @Test
+    void decodesWhatItEncodes() throws IOException
+    {
+        UUID uuid = UUID.randomUUID();
+        PrepareTransferNotice notice = PrepareTransferNotice.decode(new PrepareTransferNotice(uuid, "survival", "skyblock", 1700000000000L).encode());
+        assertEquals(uuid, notice.uuid);
+        assertEquals("survival", notice.origin);
+        assertEquals("skyblock", notice.destination);
+        assertEquals(1700000000000L, notice.sentAt);
+    }
+
+    @Test
+    void skipsFieldsItDoesNotKnow() throws IOException
+    {
+        UUID uuid = UUID.randomUUID();
+        PrepareTransferNotice notice = PrepareTransferNotice.decode("{\"v\":2,\"uuid\":\"" + uuid + "\",\"reason\":{\"queue\":\"skyblock\"},\"destination\":\"skyblock\"}");
+        assertEquals(uuid, notice.uuid);
+        assertEquals("", notice.origin);
+        assertEquals("skyblock", notice.destination);
+        assertEquals(0, notice.sentAt);
+    }
+
+    @Test
+    void rejectsNoticesWithoutAPlayer()
+    {
+        assertThrows(IOException.class, () -> PrepareTransferNotice.decode("{\"v\":1,\"origin\":\"survival\"}"));
+        assertThrows(IOException.class, () -> PrepareTransferNotice.decode("not json"));
+    }
+}
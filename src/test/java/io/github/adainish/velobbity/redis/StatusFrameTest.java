@@ -0,0 +1,72 @@
+package io.github.adainish.velobbity.redis;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatusFrameTest
+{
+    @Test
+    void readsBackWhatWasWritten()
+    {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        StatusFrame.Writer writer = new StatusFrame.Writer(8);
+        writer.add(first, PlayerStatus.SAFE, 1700000000000L, "survival");
+        writer.add(second, PlayerStatus.SYNCING, 0, null);
+        StatusFrame.Reader reader = new StatusFrame.Reader();
+        assertTrue(reader.wrap(writer.toByteArray()));
+
+        assertTrue(reader.next());
+        assertEquals(first, reader.uuid());
+        assertEquals(PlayerStatus.SAFE, reader.status());
+        assertEquals(1700000000000L, reader.timestamp());
+        assertEquals("survival", reader.origin());
+        assertTrue(reader.originEquals("survival"));
+        assertFalse(reader.originEquals("survival2"));
+        assertFalse(reader.originEquals("surviva"));
+
+        assertTrue(reader.next());
+        assertEquals(second, reader.uuid());
+        assertFalse(reader.hasTimestamp());
+        assertNull(reader.origin());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    void encodesOriginsAsUtf8()
+    {
+        String origin = "\u00fcberlobby-\u5927\u5385-\ud83c\udfb2";
+        StatusFrame.Reader reader = single(origin);
+        assertEquals(origin, reader.origin());
+        assertTrue(reader.originEquals(origin));
+        assertFalse(reader.originEquals("uberlobby"));
+    }
+
+    @Test
+    void cutsLongOriginsBetweenCharacters()
+    {
+        //254 bytes of ascii, the next character takes two and no longer fits
+        String origin = "a".repeat(254) + "\u00e9" + "b";
+        StatusFrame.Reader reader = single(origin);
+        assertEquals("a".repeat(254), reader.origin());
+
+        String wide = "\u5927".repeat(100);
+        reader = single(wide);
+        assertEquals("\u5927".repeat(85), reader.origin());
+        assertEquals(255, reader.origin().getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static StatusFrame.Reader single(String origin)
+    {
+        StatusFrame.Writer writer = new StatusFrame.Writer(16);
+        writer.add(UUID.randomUUID(), PlayerStatus.SAFE, 1, origin);
+        StatusFrame.Reader reader = new StatusFrame.Reader();
+        assertTrue(reader.wrap(writer.toByteArray()));
+        assertTrue(reader.next());
+        return reader;
+    }
+}
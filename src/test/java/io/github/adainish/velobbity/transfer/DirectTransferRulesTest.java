@@ -0,0 +1,47 @@
+package io.github.adainish.velobbity.transfer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectTransferRulesTest
+{
+    @Test
+    void allowsOnlyMatchingRoutes()
+    {
+        DirectTransferRules rules = DirectTransferRules.parse(List.of("survival->skyblock", "hub->*"), List.of());
+        assertTrue(rules.allows("survival", "skyblock"));
+        assertTrue(rules.allows("hub", "anything"));
+        assertFalse(rules.allows("skyblock", "survival"));
+        assertFalse(rules.allows("survival", "creative"));
+    }
+
+    @Test
+    void denyWinsOverAllow()
+    {
+        DirectTransferRules rules = DirectTransferRules.parse(List.of("*->*"), List.of("survival->creative", "* -> events"));
+        assertTrue(rules.allows("survival", "skyblock"));
+        assertFalse(rules.allows("survival", "creative"));
+        assertFalse(rules.allows("hub", "events"));
+    }
+
+    @Test
+    void unknownServersAreNeverAllowed()
+    {
+        DirectTransferRules rules = DirectTransferRules.parse(List.of("*->*"), List.of());
+        assertFalse(rules.allows(null, "skyblock"));
+        assertFalse(rules.allows("survival", null));
+        assertFalse(DirectTransferRules.NONE.allows("survival", "skyblock"));
+        assertTrue(DirectTransferRules.NONE.isEmpty());
+    }
+
+    @Test
+    void rejectsMalformedRules()
+    {
+        assertThrows(IllegalArgumentException.class, () -> DirectTransferRules.parse(List.of("survival"), List.of()));
+        assertThrows(IllegalArgumentException.class, () -> DirectTransferRules.parse(List.of("->skyblock"), List.of()));
+        assertThrows(IllegalArgumentException.class, () -> DirectTransferRules.parse(List.of(), List.of("survival->")));
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.adainish.velobbity.transfer;
+
+import com.google.gson.JsonObject;
+import io.github.adainish.velobbity.PluginHarness;
+import io.github.adainish.velobbity.Velobbbity;
+import io.github.adainish.velobbity.data.VelobbityPlayer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FailedLobbyConnectTest
+{
+    private PluginHarness harness;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        JsonObject transfer = new JsonObject();
+        //long enough that the retry is still pending when checked
+        transfer.addProperty("retryBaseMillis", 60000);
+        harness = new PluginHarness(transfer);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception
+    {
+        harness.close();
+    }
+
+    @Test
+    void aRefusedLobbyConnectIsRetried()
+    {
+        UUID uuid = harness.join("origin");
+        VelobbityPlayer session = harness.plugin.sessions.get(uuid);
+        assertTrue(session.beginTransfer(Velobbbity.TRANSFER_STALE_MILLIS));
+        session.setDesiredServer("target");
+
+        harness.refuseConnect(uuid, "lobby1");
+        assertEquals(1, harness.plugin.redirectRetryScheduler.pendingCount());
+    }
+
+    @Test
+    void otherRefusedConnectsAreLeftAlone()
+    {
+        UUID uuid = harness.join("origin");
+        //not on the way anywhere
+        harness.refuseConnect(uuid, "lobby1");
+        assertEquals(0, harness.plugin.redirectRetryScheduler.pendingCount());
+
+        //on the way to a lobby, but refused by a server that is not one
+        VelobbityPlayer session = harness.plugin.sessions.get(uuid);
+        assertTrue(session.beginTransfer(Velobbbity.TRANSFER_STALE_MILLIS));
+        session.setDesiredServer("target");
+        harness.refuseConnect(uuid, "target");
+        assertEquals(0, harness.plugin.redirectRetryScheduler.pendingCount());
+    }
+}
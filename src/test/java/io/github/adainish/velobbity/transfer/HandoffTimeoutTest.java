@@ -0,0 +1,59 @@
+package io.github.adainish.velobbity.transfer;
+
+import com.google.gson.JsonObject;
+import io.github.adainish.velobbity.PluginHarness;
+import io.github.adainish.velobbity.Velobbbity;
+import io.github.adainish.velobbity.data.TransferState;
+import io.github.adainish.velobbity.data.VelobbityPlayer;
+import io.github.adainish.velobbity.redis.PlayerStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HandoffTimeoutTest
+{
+    private PluginHarness harness;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        JsonObject transfer = new JsonObject();
+        transfer.addProperty("minimumDwellMillis", 0);
+        transfer.addProperty("handoffTimeoutMillis", 200);
+        harness = new PluginHarness(transfer);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception
+    {
+        harness.close();
+    }
+
+    @Test
+    void aTimedOutHandoffGetsPastTheStatusGate() throws Exception
+    {
+        UUID uuid = harness.join("origin");
+        //on their way from the origin to a lobby, the origin is still saving their data
+        VelobbityPlayer session = harness.plugin.sessions.get(uuid);
+        assertTrue(session.beginTransfer(Velobbbity.TRANSFER_STALE_MILLIS));
+        session.setDesiredServer("target");
+        harness.report(uuid, PlayerStatus.SYNCING);
+        assertEquals("syncing", harness.plugin.playerStatusCache.get(uuid));
+        harness.moveTo(uuid, "origin", "lobby1");
+        assertEquals(TransferState.SYNCING, session.getTransferState());
+
+        //the safe message never came, the timeout has to hand them off anyway
+        assertEquals(Boolean.TRUE, harness.queueOutcomes.poll(5, TimeUnit.SECONDS), "timed out handoff was held back by the status gate");
+        assertEquals(TransferState.TRANSFERRING, session.getTransferState());
+
+        //a late safe message does not queue them a second time
+        harness.report(uuid, PlayerStatus.SAFE);
+        assertNull(harness.queueOutcomes.poll(500, TimeUnit.MILLISECONDS));
+        assertEquals(1, harness.queueServers.queued.sum());
+    }
+}